@@ -15,11 +15,16 @@ dependencies {
     
     // WebSocket-Client: Tyrus (enthält Implementation)
     implementation("org.glassfish.tyrus.bundles:tyrus-standalone-client:2.1.3")
+    // permessage-deflate for Tyrus, see WebSocketConnector
+    implementation("org.glassfish.tyrus.ext:tyrus-extension-deflate:2.1.3")
 
     // JSON-Binding (Yasson + API)
     implementation("jakarta.json.bind:jakarta.json.bind-api:3.0.0")
     implementation("org.eclipse:yasson:3.0.3")
 
+    // JSON-P streaming API, used directly by MessageCodec (implementation Parsson comes with Yasson)
+    implementation("jakarta.json:jakarta.json-api:2.1.2")
+
     // Test
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
@@ -28,3 +33,8 @@ dependencies {
 tasks.test {
     useJUnitPlatform()
 }
+
+// Sources contain umlauts, don't depend on the platform encoding
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
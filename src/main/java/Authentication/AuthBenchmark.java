@@ -0,0 +1,68 @@
+package Authentication;
+
+/*
+ * Measures the full challenge response (hex decoding, SHA-256, signing, message building)
+ * for each key profile, which is what every client runs at once after a server restart.
+ * Keys are created in memory only, nothing is written to the credentials file.
+ * Run with: java Authentication.AuthBenchmark [iterations]
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import Crypto.ECKey;
+import Crypto.KeyProfile;
+import Crypto.KeyType;
+import Crypto.RSAKey;
+import model.User;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Properties;
+
+public class AuthBenchmark {
+    private static final int WARMUP_ITERATIONS = 50;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        byte[] challengeBytes = new byte[32]; // Same size as the server challenge
+        new SecureRandom().nextBytes(challengeBytes);
+        String challenge = HexFormat.of().formatHex(challengeBytes);
+
+        System.out.println("[BENCHMARK] " + iterations + " auth responses per profile");
+        System.out.printf("%-14s %14s%n", "Profile", "response us");
+
+        for (KeyProfile profile : KeyProfile.values()) {
+            Authentication authentication = new Authentication(new User("benchmark", true, credentialsFor(profile)));
+            authentication.setChallenge(challenge);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                authentication.buildAuthResponse();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                authentication.buildAuthResponse();
+            }
+            double micros = (System.nanoTime() - start) / 1_000.0 / iterations;
+            System.out.printf("%-14s %14.1f%n", profile, micros);
+        }
+    }
+
+    // Credentials in the format of CredentialsManager.loadCredentials, for a fresh key
+    private static Properties credentialsFor(KeyProfile profile) {
+        Properties props = new Properties();
+        if (profile.getKeyType() == KeyType.EC) {
+            props.setProperty("keyType", "EC");
+            new ECKey().storeTo(props, "");
+            return props;
+        }
+        RSAKey key = new RSAKey(profile);
+        props.setProperty("public.n", key.getN().toString(16));
+        props.setProperty("public.e", key.getE().toString(16));
+        props.setProperty("private.d", key.getD().toString(16));
+        props.setProperty("private.p", key.getP().toString(16));
+        props.setProperty("private.q", key.getQ().toString(16));
+        props.setProperty("private.dp", key.getDP().toString(16));
+        props.setProperty("private.dq", key.getDQ().toString(16));
+        props.setProperty("private.qinv", key.getQInv().toString(16));
+        props.setProperty("keyProfile", profile.name());
+        return props;
+    }
+}
@@ -3,6 +3,7 @@ package Authentication;
 /* 
  * This class handles user authentication on the Client side.
  * It will use the RSAKey pair and a challenge to authenticate users on Server.
+ * Users with EC keys answer with an Ed25519 signature instead.
  * @author Max Staneker, Mia Schienagel
  * @version 0.1
  */
@@ -11,9 +12,22 @@ import Crypto.RSAKey;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 
 public class Authentication {
+    // Debug output of challenge, hash and signature, e.g. -Dmchat.debug.auth=true
+    private static final boolean DEBUG = Boolean.getBoolean("mchat.debug.auth");
+    private static final HexFormat HEX = HexFormat.of();
+    // MessageDigest is not thread safe, so every thread keeps its own instance
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
     private final User user; //← From User
     private String currentChallenge;
 
@@ -33,13 +47,11 @@ public class Authentication {
             throw new IllegalStateException("No challenge set. Use setChallenge() first.");
         }
         RSAKey key = user.getKey();
-        
-
-        System.out.println("[CLIENT DEBUG] Challenge HEX: " + currentChallenge);
-        BigInteger challengeBigInt = new BigInteger(currentChallenge, 16);
-        System.out.println("[CLIENT DEBUG] Challenge BigInt: " + challengeBigInt.toString(16));
-        BigInteger signature = key.sign(challengeBigInt);
-        System.out.println("[CLIENT DEBUG] Signature: " + signature.toString(16));
+        BigInteger signature = key.sign(new BigInteger(currentChallenge, 16));
+        if (DEBUG) {
+            System.out.println("[CLIENT DEBUG] Challenge HEX: " + currentChallenge);
+            System.out.println("[CLIENT DEBUG] Signature: " + signature.toString(16));
+        }
         return signature;
     }
 
@@ -66,40 +78,24 @@ public class Authentication {
 
     // Handle the challenge by hashing and signing it
     public String handleChallenge(String challenge) {
-        try {
-            System.out.println("[CLIENT DEBUG] Original challenge: " + challenge);
-            
-            // The challenge is received as a hex string, convert it to bytes first
-            byte[] challengeBytes = hexStringToByteArray(challenge);
-            System.out.println("[CLIENT DEBUG] Challenge bytes length: " + challengeBytes.length);
-            
-            // Hash the challenge bytes
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashedChallenge = digest.digest(challengeBytes);
-            BigInteger hashedChallengeBigInt = new BigInteger(1, hashedChallenge);
-            System.out.println("[CLIENT DEBUG] Hashed challenge: " + hashedChallengeBigInt.toString(16));
-
-            // Sign the hashed challenge with the private key
-            BigInteger signature = user.getKey().sign(hashedChallengeBigInt);
-            System.out.println("[CLIENT DEBUG] Signature: " + signature.toString(16));
+        // The challenge is received as a hex string, convert it to bytes first
+        byte[] challengeBytes = HEX.parseHex(challenge);
 
-            // Return the signature as a hex string
-            return signature.toString(16);
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println("[CLIENT/Auth] SHA-256 algorithm not found: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        if (user.getECKey() != null) {
+            // Ed25519 hashes internally, sign the raw challenge bytes
+            byte[] signature = user.getECKey().sign(challengeBytes);
+            return new BigInteger(1, signature).toString(16);
         }
-    }
-    
-    // Helper method to convert hex string to byte array
-    private byte[] hexStringToByteArray(String hexString) {
-        int len = hexString.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hexString.charAt(i), 16) << 4)
-                                + Character.digit(hexString.charAt(i+1), 16));
+
+        // Hash the challenge bytes and sign the hash with the private key
+        BigInteger hashedChallenge = new BigInteger(1, sha256.get().digest(challengeBytes));
+        BigInteger signature = user.getKey().sign(hashedChallenge);
+        String signatureHex = signature.toString(16);
+        if (DEBUG) {
+            System.out.println("[CLIENT DEBUG] Original challenge: " + challenge);
+            System.out.println("[CLIENT DEBUG] Hashed challenge: " + hashedChallenge.toString(16));
+            System.out.println("[CLIENT DEBUG] Signature: " + signatureHex);
         }
-        return data;
+        return signatureHex;
     }
 }
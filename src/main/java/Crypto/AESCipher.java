@@ -0,0 +1,81 @@
+package Crypto;
+
+/*
+ * Small helper around the JDK's AES-GCM implementation.
+ * The JDK uses the AES-NI / CLMUL intrinsics for this on all common CPUs,
+ * so bulk encryption is much cheaper than any RSA operation.
+ * Cipher instances are cached per thread since Cipher.getInstance is not free.
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+public class AESCipher {
+    public static final int KEY_LENGTH = 32; // AES-256
+    public static final int IV_LENGTH = 12;  // Recommended nonce size for GCM
+    public static final int TAG_BITS = 128;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadLocal<Cipher> cipherCache = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM not available", e);
+        }
+    });
+
+    private AESCipher() {
+    }
+
+    public static byte[] newKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        random.nextBytes(key);
+        return key;
+    }
+
+    public static byte[] newIv() {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        return iv;
+    }
+
+    /*
+     * Encrypts the plaintext, the result is the ciphertext followed by the 16 byte tag.
+     * @param aad additional data that is authenticated but not encrypted (e.g. a header), may be null
+     */
+    public static byte[] encrypt(byte[] key, byte[] iv, byte[] plaintext, byte[] aad) {
+        try {
+            Cipher cipher = cipherCache.get();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_BITS, iv));
+            if (aad != null) {
+                cipher.updateAAD(aad);
+            }
+            return cipher.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM encryption failed", e);
+        }
+    }
+
+    /*
+     * Decrypts and authenticates ciphertext||tag starting at the given offset.
+     * Throws IllegalArgumentException if the tag does not match.
+     */
+    public static byte[] decrypt(byte[] key, byte[] iv, byte[] data, int offset, int length, byte[] aad) {
+        try {
+            Cipher cipher = cipherCache.get();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_BITS, iv));
+            if (aad != null) {
+                cipher.updateAAD(aad);
+            }
+            return cipher.doFinal(data, offset, length);
+        } catch (javax.crypto.AEADBadTagException e) {
+            throw new IllegalArgumentException("Message authentication failed", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM decryption failed", e);
+        }
+    }
+}
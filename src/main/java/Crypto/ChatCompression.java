@@ -0,0 +1,214 @@
+package Crypto;
+
+/*
+ * Deflates chat text before it is encrypted. Ciphertext can't be compressed, so this is the
+ * only place where compression still helps: fewer bytes into the cipher means fewer RSA blocks
+ * and smaller frames.
+ * Chat messages are short, so a plain deflate stream would hardly find any repetitions.
+ * Both sides use the same preset dictionary of common chat words and Morse code, which gives
+ * deflate something to refer back to from the first byte on.
+ * Raw deflate (no zlib header and checksum) is used, the AEAD tag or the RSA padding already
+ * protect the data. The formats mark compressed payloads with FLAG_DEFLATE in their flags byte,
+ * the payload is only compressed if that makes it smaller.
+ * -Dmchat.crypto.compress=false turns compression off for sending, receiving always works.
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ChatCompression {
+    public static final byte FLAG_DEFLATE = 0x01;
+
+    // Never inflate more than this, a small message must not be able to fill the heap
+    private static final int MAX_INFLATED_LENGTH = Integer.getInteger("mchat.crypto.maxInflated", 16 * 1024 * 1024);
+
+    /*
+     * Deflate finds matches by distance, so the most common strings are at the end.
+     * Changing the dictionary breaks reading messages compressed with the old one.
+     */
+    private static final byte[] DICTIONARY = (
+            // Morse code as produced by Morsecode.toMorse, letters separated by spaces and words by " / "
+            "----- .---- ..--- ...-- ....- ..... -.... --... ---.. ----. "
+            + "-..- --.- .--- -.-- --.. ..-- .-.- -... -.-. ..-. .--. --. "
+            + ".-.. --- -.- -.. ..- ...- .-- .-. ... - ---- .- .. -. -- . "
+            + "... --- ... / .... .- .-.. .-.. --- / -.. ..- / "
+            // English
+            + "Thank you! Good morning, how are you doing? What do you think about this? "
+            + "I don't know, let me check. See you later. Sorry, I can't right now. "
+            + "Yes, that's right. No problem. Please send me the file. "
+            + "the and you that this with have what for not are was but just "
+            + "ok okay lol haha thanks hello hi "
+            // German
+            + "Vielen Dank! Guten Morgen, wie geht es dir? Was denkst du dar\u00fcber? "
+            + "Ich wei\u00df es nicht, ich schaue nach. Bis sp\u00e4ter. Tut mir leid, gerade nicht. "
+            + "Ja, das stimmt. Kein Problem. Kannst du mir die Datei schicken? "
+            + "Nachricht Chat heute morgen gestern schon noch auch aber wenn dann "
+            + "ich du er sie wir ihr und oder nicht das die der ist bin bist hast habe "
+            + "ja nein gut danke bitte hallo hey haha "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("mchat.crypto.compress"));
+
+    // Deflater and Inflater hold native memory, so one of each per thread is reused
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private ChatCompression() {
+    }
+
+    public static void setEnabled(boolean compress) {
+        enabled = compress;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Deflates the plaintext with the chat dictionary.
+     * @return The compressed bytes, or null if compression is off or wouldn't make the data smaller
+     */
+    public static byte[] compress(byte[] plaintext) {
+        if (!enabled || plaintext.length == 0) {
+            return null;
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(plaintext);
+        deflater.finish();
+        byte[] output = new byte[plaintext.length - 1]; // Anything longer is not worth it
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                return null;
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return Arrays.copyOf(output, length);
+    }
+
+    /*
+     * Inflates data produced by compress.
+     */
+    public static byte[] decompress(byte[] data, int offset, int length) {
+        Inflater inflater = newInflater(inflaters.get());
+        inflater.setInput(data, offset, length);
+        byte[] output = new byte[Math.min(Math.max(64, length * 4), MAX_INFLATED_LENGTH)];
+        int outputLength = 0;
+        try {
+            while (!inflater.finished()) {
+                if (outputLength == output.length) {
+                    if (output.length >= MAX_INFLATED_LENGTH) {
+                        throw new IllegalArgumentException("Compressed message is too large");
+                    }
+                    output = Arrays.copyOf(output, (int) Math.min(2L * output.length, MAX_INFLATED_LENGTH));
+                }
+                int inflated = inflater.inflate(output, outputLength, output.length - outputLength);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Truncated compressed data");
+                }
+                outputLength += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed data", e);
+        }
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    /*
+     * UTF-8 text of a decrypted payload, inflated first if the flags say so.
+     */
+    public static String toText(byte[] payload, int offset, int length, byte flags) {
+        if ((flags & FLAG_DEFLATE) != 0) {
+            payload = decompress(payload, offset, length);
+            offset = 0;
+            length = payload.length;
+        }
+        return new String(payload, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // Raw inflate takes the dictionary up front, it never asks for it
+    private static Inflater newInflater(Inflater inflater) {
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        return inflater;
+    }
+
+    public static Decompressor newDecompressor() {
+        return new Decompressor();
+    }
+
+    /*
+     * Inflates a compressed payload that arrives in pieces and returns the text as soon as
+     * it is complete, code points split between two pieces are held back.
+     */
+    public static class Decompressor {
+        private final Inflater inflater = newInflater(new Inflater(true));
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final byte[] chunk = new byte[8192];
+        private ByteBuffer pending = ByteBuffer.allocate(chunk.length + 4); // Bytes not decoded yet, in read mode after flip
+        private long inflatedLength;
+
+        private Decompressor() {
+        }
+
+        public String update(byte[] data, int offset, int length) {
+            if (length == 0 || inflater.finished()) {
+                return "";
+            }
+            inflater.setInput(data, offset, length);
+            StringBuilder text = new StringBuilder();
+            try {
+                while (!inflater.finished()) {
+                    int inflated = inflater.inflate(chunk);
+                    if (inflated == 0) {
+                        break; // Needs the next piece
+                    }
+                    inflatedLength += inflated;
+                    if (inflatedLength > MAX_INFLATED_LENGTH) {
+                        throw new IllegalArgumentException("Compressed message is too large");
+                    }
+                    decode(inflated, text);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Invalid compressed data", e);
+            }
+            return text.toString();
+        }
+
+        private void decode(int length, StringBuilder text) {
+            if (pending.remaining() < length) {
+                pending = ByteBuffer.allocate(pending.position() + length).put(pending.flip());
+            }
+            pending.put(chunk, 0, length).flip();
+            CharBuffer chars = CharBuffer.allocate(pending.remaining());
+            decoder.decode(pending, chars, false);
+            text.append(chars.flip());
+            pending.compact();
+        }
+
+        /*
+         * Checks that the compressed stream is complete and frees the inflater
+         */
+        public void finish() {
+            try {
+                if (!inflater.finished()) {
+                    throw new IllegalArgumentException("Truncated compressed data");
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package Crypto;
+
+/*
+ * Elliptic curve identity key, the alternative to RSAKey.
+ * Uses the JDK's built-in Ed25519 for the authentication signature and X25519 for key agreement.
+ * Public keys are 32 bytes each (hex on the wire), generating a key takes microseconds
+ * instead of a prime search and signing is much faster than an RSA modPow.
+ * Symmetric keys are wrapped for a recipient with an ephemeral X25519 key (ECIES style):
+ * wrapped = ephemeralPublic(32) | iv(12) | AES-GCM(kek, key), kek = SHA-256(label | shared secret | both public keys)
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.EdECPublicKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Properties;
+import javax.crypto.KeyAgreement;
+
+public class ECKey implements MessageKey {
+    private static final int RAW_KEY_LENGTH = 32;
+    private static final byte[] WRAP_LABEL = "mchat-x25519-wrap".getBytes(StandardCharsets.US_ASCII);
+
+    private final KeyPair signingKeys;   // Ed25519
+    private final KeyPair agreementKeys; // X25519
+
+    public ECKey() {
+        try {
+            this.signingKeys = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+            this.agreementKeys = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Ed25519/X25519 not available", e);
+        }
+        System.out.println("[CLIENT] New EC keys generated (Ed25519/X25519)");
+    }
+
+    public ECKey(Properties credentials) {
+        try {
+            this.signingKeys = loadKeyPair("Ed25519", credentials.getProperty("ec.sign.public"), credentials.getProperty("ec.sign.private"));
+            this.agreementKeys = loadKeyPair("X25519", credentials.getProperty("ec.agree.public"), credentials.getProperty("ec.agree.private"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid EC keys in credentials", e);
+        }
+        System.out.println("[CLIENT] EC keys loaded from credentials");
+    }
+
+    private static KeyPair loadKeyPair(String algorithm, String publicBase64, String privateBase64) throws GeneralSecurityException {
+        KeyFactory factory = KeyFactory.getInstance(algorithm);
+        PublicKey publicKey = factory.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicBase64)));
+        PrivateKey privateKey = factory.generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateBase64)));
+        return new KeyPair(publicKey, privateKey);
+    }
+
+    /*
+     * Stores the keys (X.509/PKCS#8, Base64) into the given properties under the given prefix
+     */
+    public void storeTo(Properties props, String prefix) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        props.setProperty(prefix + "ec.sign.public", encoder.encodeToString(signingKeys.getPublic().getEncoded()));
+        props.setProperty(prefix + "ec.sign.private", encoder.encodeToString(signingKeys.getPrivate().getEncoded()));
+        props.setProperty(prefix + "ec.agree.public", encoder.encodeToString(agreementKeys.getPublic().getEncoded()));
+        props.setProperty(prefix + "ec.agree.private", encoder.encodeToString(agreementKeys.getPrivate().getEncoded()));
+    }
+
+    // Signs the message with Ed25519 (the algorithm hashes internally, no pre-hash needed)
+    public byte[] sign(byte[] message) {
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initSign(signingKeys.getPrivate());
+            signature.update(message);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Ed25519 signing failed", e);
+        }
+    }
+
+    public boolean verify(byte[] message, byte[] signatureBytes) {
+        return verify(signingKeys.getPublic(), message, signatureBytes);
+    }
+
+    /*
+     * Verifies an Ed25519 signature against a raw 32 byte public key (as sent on registration)
+     */
+    public static boolean verify(String signingPublicKeyHex, byte[] message, byte[] signatureBytes) {
+        try {
+            return verify(decodeSigningKey(HexFormat.of().parseHex(signingPublicKeyHex)), message, signatureBytes);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean verify(PublicKey publicKey, byte[] message, byte[] signatureBytes) {
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initVerify(publicKey);
+            signature.update(message);
+            return signature.verify(signatureBytes);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Wraps a symmetric key for the owner of the given X25519 public key.
+     * @param recipientU The recipient's X25519 u-coordinate from PublicKeyManager
+     */
+    public static byte[] wrapKey(byte[] key, BigInteger recipientU) {
+        try {
+            KeyPair ephemeral = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+            PublicKey recipientKey = KeyFactory.getInstance("X25519")
+                    .generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, recipientU));
+            byte[] ephemeralRaw = encodeU(((XECPublicKey) ephemeral.getPublic()).getU());
+            byte[] kek = deriveKek(agree(ephemeral.getPrivate(), recipientKey), ephemeralRaw, encodeU(recipientU));
+
+            byte[] iv = AESCipher.newIv();
+            byte[] encryptedKey = AESCipher.encrypt(kek, iv, key, ephemeralRaw);
+            byte[] wrapped = new byte[RAW_KEY_LENGTH + iv.length + encryptedKey.length];
+            System.arraycopy(ephemeralRaw, 0, wrapped, 0, RAW_KEY_LENGTH);
+            System.arraycopy(iv, 0, wrapped, RAW_KEY_LENGTH, iv.length);
+            System.arraycopy(encryptedKey, 0, wrapped, RAW_KEY_LENGTH + iv.length, encryptedKey.length);
+            return wrapped;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X25519 key wrapping failed", e);
+        }
+    }
+
+    @Override
+    public byte[] unwrapKey(byte[] data, int offset, int length) {
+        if (length < RAW_KEY_LENGTH + AESCipher.IV_LENGTH) {
+            throw new IllegalArgumentException("Truncated wrapped key");
+        }
+        try {
+            byte[] ephemeralRaw = Arrays.copyOfRange(data, offset, offset + RAW_KEY_LENGTH);
+            PublicKey ephemeralKey = KeyFactory.getInstance("X25519")
+                    .generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, decodeU(ephemeralRaw)));
+            byte[] kek = deriveKek(agree(agreementKeys.getPrivate(), ephemeralKey), ephemeralRaw, encodeU(getAgreementU()));
+            byte[] iv = Arrays.copyOfRange(data, offset + RAW_KEY_LENGTH, offset + RAW_KEY_LENGTH + AESCipher.IV_LENGTH);
+            int keyOffset = offset + RAW_KEY_LENGTH + AESCipher.IV_LENGTH;
+            return AESCipher.decrypt(kek, iv, data, keyOffset, offset + length - keyOffset, ephemeralRaw);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("X25519 key unwrapping failed", e);
+        }
+    }
+
+    /*
+     * Encrypts the plaintext into an "ENV1:" envelope for an EC recipient.
+     */
+    public static String encryptEnvelope(String plaintext, BigInteger recipientU) {
+        byte[] aesKey = AESCipher.newKey();
+        return RSAKey.sealEnvelope(plaintext, aesKey, wrapKey(aesKey, recipientU));
+    }
+
+    /*
+     * EC keys only receive envelopes, the per-chunk formats need RSA.
+     */
+    @Override
+    public String decryptLongString(String ciphertext) {
+        if (!ciphertext.startsWith(RSAKey.ENVELOPE_PREFIX)) {
+            throw new IllegalArgumentException("Format not supported with EC keys");
+        }
+        return RSAKey.openEnvelope(ciphertext, this);
+    }
+
+    private static byte[] agree(PrivateKey privateKey, PublicKey publicKey) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+        return agreement.generateSecret();
+    }
+
+    private static byte[] deriveKek(byte[] sharedSecret, byte[] ephemeralRaw, byte[] recipientRaw) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(WRAP_LABEL);
+        digest.update(sharedSecret);
+        digest.update(ephemeralRaw);
+        digest.update(recipientRaw);
+        return digest.digest();
+    }
+
+    public BigInteger getAgreementU() {
+        return ((XECPublicKey) agreementKeys.getPublic()).getU();
+    }
+
+    // Raw 32 byte Ed25519 public key (RFC 8032), hex encoded
+    public String getSigningPublicKeyHex() {
+        EdECPoint point = ((EdECPublicKey) signingKeys.getPublic()).getPoint();
+        byte[] raw = toLittleEndian(point.getY());
+        if (point.isXOdd()) {
+            raw[RAW_KEY_LENGTH - 1] |= (byte) 0x80;
+        }
+        return HexFormat.of().formatHex(raw);
+    }
+
+    // Raw 32 byte X25519 public key (RFC 7748), hex encoded
+    public String getAgreementPublicKeyHex() {
+        return HexFormat.of().formatHex(encodeU(getAgreementU()));
+    }
+
+    /*
+     * Parses a hex X25519 public key as sent by the server
+     * @return The u-coordinate, used as the public key entry {u} in PublicKeyManager
+     */
+    public static BigInteger decodeAgreementKey(String hex) {
+        return decodeU(HexFormat.of().parseHex(hex));
+    }
+
+    private static PublicKey decodeSigningKey(byte[] raw) throws GeneralSecurityException {
+        if (raw.length != RAW_KEY_LENGTH) {
+            throw new IllegalArgumentException("Ed25519 public key must be 32 bytes");
+        }
+        byte[] yBytes = raw.clone();
+        boolean xOdd = (yBytes[RAW_KEY_LENGTH - 1] & 0x80) != 0;
+        yBytes[RAW_KEY_LENGTH - 1] &= 0x7f;
+        EdECPoint point = new EdECPoint(xOdd, fromLittleEndian(yBytes));
+        return KeyFactory.getInstance("Ed25519").generatePublic(new EdECPublicKeySpec(NamedParameterSpec.ED25519, point));
+    }
+
+    private static byte[] encodeU(BigInteger u) {
+        return toLittleEndian(u);
+    }
+
+    private static BigInteger decodeU(byte[] raw) {
+        if (raw.length != RAW_KEY_LENGTH) {
+            throw new IllegalArgumentException("X25519 public key must be 32 bytes");
+        }
+        byte[] masked = raw.clone();
+        masked[RAW_KEY_LENGTH - 1] &= 0x7f; // RFC 7748: the top bit is ignored
+        return fromLittleEndian(masked);
+    }
+
+    private static byte[] toLittleEndian(BigInteger value) {
+        byte[] bigEndian = value.toByteArray();
+        byte[] result = new byte[RAW_KEY_LENGTH];
+        for (int i = 0; i < bigEndian.length && i < RAW_KEY_LENGTH; i++) {
+            result[i] = bigEndian[bigEndian.length - 1 - i];
+        }
+        return result;
+    }
+
+    private static BigInteger fromLittleEndian(byte[] littleEndian) {
+        byte[] bigEndian = new byte[littleEndian.length];
+        for (int i = 0; i < littleEndian.length; i++) {
+            bigEndian[i] = littleEndian[littleEndian.length - 1 - i];
+        }
+        return new BigInteger(1, bigEndian);
+    }
+}
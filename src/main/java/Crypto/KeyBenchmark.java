@@ -0,0 +1,94 @@
+package Crypto;
+
+/*
+ * Measures what each key profile costs: key generation, encryption with the public key,
+ * decryption with the private key (CRT) and signing.
+ * For the EC profile encryption/decryption means X25519 wrapping of the session key.
+ * Run with: java Crypto.KeyBenchmark [iterations]
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+public class KeyBenchmark {
+    private static final int WARMUP_ITERATIONS = 50;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        SecureRandom random = new SecureRandom();
+
+        System.out.println("[BENCHMARK] " + iterations + " iterations per operation, times per operation");
+        System.out.printf("%-14s %12s %12s %12s %12s %12s%n", "Profile", "keygen ms", "encrypt us", "decrypt us", "sign us", "envelope us");
+
+        for (KeyProfile profile : KeyProfile.values()) {
+            if (profile.getKeyType() == KeyType.EC) {
+                benchmarkEC(profile, iterations);
+                continue;
+            }
+            long start = System.nanoTime();
+            RSAKey key = new RSAKey(profile);
+            double keygenMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            byte[] sessionKey = AESCipher.newKey();
+            byte[] wrapped = RSAKey.wrapKey(sessionKey, key.getN(), key.getE());
+            BigInteger hash = new BigInteger(256, random); // Same size as the SHA-256 challenge hash
+            String message = "Hallo, wie geht's? Das ist eine ganz normale Chatnachricht.";
+            String envelope = RSAKey.encryptEnvelope(message, key.getN(), key.getE());
+
+            // Warm up the JIT before measuring
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                RSAKey.wrapKey(sessionKey, key.getN(), key.getE());
+                key.unwrapKey(wrapped, 0, wrapped.length);
+                key.sign(hash);
+                key.decryptEnvelope(envelope);
+            }
+
+            double encryptMicros = measure(iterations, () -> RSAKey.wrapKey(sessionKey, key.getN(), key.getE()));
+            double decryptMicros = measure(iterations, () -> key.unwrapKey(wrapped, 0, wrapped.length));
+            double signMicros = measure(iterations, () -> key.sign(hash));
+            double envelopeMicros = measure(iterations, () -> key.decryptEnvelope(RSAKey.encryptEnvelope(message, key.getN(), key.getE())));
+
+            System.out.printf("%-14s %12.1f %12.1f %12.1f %12.1f %12.1f%n",
+                    profile, keygenMillis, encryptMicros, decryptMicros, signMicros, envelopeMicros);
+        }
+    }
+
+    // Same columns for EC keys: X25519 wrap/unwrap of the session key and Ed25519 signatures
+    private static void benchmarkEC(KeyProfile profile, int iterations) {
+        long start = System.nanoTime();
+        ECKey key = new ECKey();
+        double keygenMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+        byte[] sessionKey = AESCipher.newKey();
+        BigInteger u = key.getAgreementU();
+        byte[] wrapped = ECKey.wrapKey(sessionKey, u);
+        byte[] challenge = new byte[32];
+        new SecureRandom().nextBytes(challenge);
+        String message = "Hallo, wie geht's? Das ist eine ganz normale Chatnachricht.";
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            ECKey.wrapKey(sessionKey, u);
+            key.unwrapKey(wrapped, 0, wrapped.length);
+            key.sign(challenge);
+            key.decryptLongString(ECKey.encryptEnvelope(message, u));
+        }
+
+        double encryptMicros = measure(iterations, () -> ECKey.wrapKey(sessionKey, u));
+        double decryptMicros = measure(iterations, () -> key.unwrapKey(wrapped, 0, wrapped.length));
+        double signMicros = measure(iterations, () -> key.sign(challenge));
+        double envelopeMicros = measure(iterations, () -> key.decryptLongString(ECKey.encryptEnvelope(message, u)));
+
+        System.out.printf("%-14s %12.1f %12.1f %12.1f %12.1f %12.1f%n",
+                profile, keygenMillis, encryptMicros, decryptMicros, signMicros, envelopeMicros);
+    }
+
+    // Average time of one run in microseconds
+    private static double measure(int iterations, Runnable operation) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / 1_000.0 / iterations;
+    }
+}
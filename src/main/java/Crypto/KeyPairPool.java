@@ -0,0 +1,92 @@
+package Crypto;
+
+/*
+ * Pre-generates RSA key pairs in the background.
+ * The prime search is by far the slowest part of creating a user, so the pool starts
+ * working as soon as the application starts and registration just picks up a finished key.
+ * The two primes of a key pair are searched for in parallel.
+ * Every key profile has its own pool, only profiles that were started or used are filled.
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class KeyPairPool {
+    private static final int POOL_SIZE = Integer.getInteger("mchat.keypool.size", 1);
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<KeyProfile, Deque<CompletableFuture<BigInteger[]>>> pools = new EnumMap<>(KeyProfile.class); // Finished or in progress
+    private static final ExecutorService primeExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "keypool-prime");
+        thread.setDaemon(true); // Never keep the application alive
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private KeyPairPool() {
+    }
+
+    /*
+     * Starts filling the pool of the default profile in the background,
+     * call this early at application start.
+     */
+    public static void start() {
+        start(KeyProfile.DEFAULT);
+    }
+
+    public static void start(KeyProfile profile) {
+        if (profile.getKeyType() != KeyType.RSA) {
+            return; // EC keys are generated in microseconds, nothing to pre-compute
+        }
+        refill(profile);
+        System.out.println("[KEYPOOL] Background key generation started for " + profile);
+    }
+
+    /*
+     * Takes a key pair of the given profile from the pool. If none is ready this waits for
+     * the one in progress (or starts one), which is still faster than a sequential prime search.
+     * @return {n, e, d, p, q, dP, dQ, qInv}
+     */
+    public static BigInteger[] take(KeyProfile profile) {
+        if (profile.getKeyType() != KeyType.RSA) {
+            throw new IllegalArgumentException("No RSA key pairs for profile " + profile);
+        }
+        CompletableFuture<BigInteger[]> next;
+        synchronized (pools) {
+            next = pools.computeIfAbsent(profile, key -> new ArrayDeque<>()).poll();
+        }
+        if (next == null) {
+            next = generateAsync(profile);
+        } else if (!next.isDone()) {
+            System.out.println("[KEYPOOL] Waiting for key pair in progress...");
+        }
+        refill(profile);
+        return next.join();
+    }
+
+    private static void refill(KeyProfile profile) {
+        synchronized (pools) {
+            Deque<CompletableFuture<BigInteger[]>> pool = pools.computeIfAbsent(profile, key -> new ArrayDeque<>());
+            while (pool.size() < POOL_SIZE) {
+                pool.add(generateAsync(profile));
+            }
+        }
+    }
+
+    // Searches p and q in parallel and derives the key pair once both are found
+    private static CompletableFuture<BigInteger[]> generateAsync(KeyProfile profile) {
+        int primeBits = profile.getPrimeBits();
+        CompletableFuture<BigInteger> p = CompletableFuture.supplyAsync(() -> BigInteger.probablePrime(primeBits, random), primeExecutor);
+        CompletableFuture<BigInteger> q = CompletableFuture.supplyAsync(() -> BigInteger.probablePrime(primeBits, random), primeExecutor);
+        return p.thenCombine(q, (primeP, primeQ) -> primeP.equals(primeQ) ? null : RSAKey.buildKeyPair(primeP, primeQ))
+                .thenCompose(keys -> keys != null ? CompletableFuture.completedFuture(keys) : generateAsync(profile)); // Unlucky primes, try again
+    }
+}
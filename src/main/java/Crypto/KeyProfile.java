@@ -0,0 +1,66 @@
+package Crypto;
+
+/*
+ * Selectable identity key profiles (RSA key strengths or elliptic curve keys).
+ * Bigger moduli are much more expensive for decryption and signing (roughly cubic in the size),
+ * run KeyBenchmark to see what each profile costs on a machine.
+ * EC_25519 selects elliptic curve keys (ECKey) instead of RSA.
+ * @author Max Staneker, Mia Schienagel
+ */
+public enum KeyProfile {
+    RSA_1024(1024), // Original key size, only for existing users
+    RSA_2048(2048),
+    RSA_3072(3072),
+    EC_25519(0);    // Ed25519 + X25519, no modulus
+
+    // Used for new registrations
+    public static final KeyProfile DEFAULT = fromName(System.getProperty("mchat.keyprofile"), RSA_2048);
+
+    private final int modulusBits;
+
+    KeyProfile(int modulusBits) {
+        this.modulusBits = modulusBits;
+    }
+
+    public int getModulusBits() {
+        return modulusBits;
+    }
+
+    public int getPrimeBits() {
+        return modulusBits / 2;
+    }
+
+    public KeyType getKeyType() {
+        return this == EC_25519 ? KeyType.EC : KeyType.RSA;
+    }
+
+    /*
+     * Profile of an existing modulus, e.g. for credentials stored before profiles existed.
+     * A product of two n/2-bit primes can be one bit shorter than n.
+     */
+    public static KeyProfile forModulus(java.math.BigInteger n) {
+        for (KeyProfile profile : values()) {
+            if (profile.getKeyType() == KeyType.RSA && n.bitLength() <= profile.modulusBits) {
+                return profile;
+            }
+        }
+        return RSA_3072;
+    }
+
+    public static KeyProfile fromName(String name, KeyProfile fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[CLIENT] Unknown key profile: " + name + ", using " + fallback);
+            return fallback;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this == EC_25519 ? "Ed25519/X25519" : "RSA " + modulusBits + " Bit";
+    }
+}
@@ -0,0 +1,21 @@
+package Crypto;
+
+import java.math.BigInteger;
+
+/*
+ * Type of a user's identity key.
+ * RSA public keys are handled as {n, e}, EC public keys as {u} (the X25519 u-coordinate).
+ * @author Max Staneker, Mia Schienagel
+ */
+public enum KeyType {
+    RSA,
+    EC; // Ed25519 for signatures, X25519 for key agreement
+
+    public static KeyType forPublicKey(BigInteger[] publicKey) {
+        return publicKey.length == 1 ? EC : RSA;
+    }
+
+    public static KeyType fromName(String name) {
+        return "EC".equals(name) ? EC : RSA; // Credentials without a key type are RSA
+    }
+}
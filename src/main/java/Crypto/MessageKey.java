@@ -0,0 +1,27 @@
+package Crypto;
+
+/*
+ * The private side of an identity key as far as message decryption is concerned.
+ * Implemented by RSAKey and ECKey, so the envelope and session formats work with both.
+ * @author Max Staneker, Mia Schienagel
+ */
+public interface MessageKey {
+
+    /*
+     * Recovers a symmetric key that a sender wrapped for our public key.
+     */
+    byte[] unwrapKey(byte[] data, int offset, int length);
+
+    /*
+     * Same for keys from version 1 envelopes and sessions, where RSA keys were wrapped without padding.
+     * Only RSA wrapped differently back then.
+     */
+    default byte[] unwrapLegacyKey(byte[] data, int offset, int length) {
+        return unwrapKey(data, offset, length);
+    }
+
+    /*
+     * Decrypts a message in any format this key type supports.
+     */
+    String decryptLongString(String ciphertext);
+}
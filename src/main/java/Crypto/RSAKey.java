@@ -3,63 +3,148 @@ package Crypto;
 /*
  * This Class is going to be used to generate RSA keys.
  * It will contain the public key (n, e) and the private key (n, d).
+ * If the prime factors are known, private key operations use the Chinese Remainder Theorem,
+ * which works on two half-size moduli and is about 3-4x faster than a full modPow(d, n).
  * @author Max Staneker, Mia Schienagel
  */
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
 import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
 
 
-public class RSAKey {
+public class RSAKey implements MessageKey {
     private final BigInteger n;
     private final BigInteger e; // Public exponent
     private final BigInteger d; // Private exponent
 
+    // CRT parameters, null for keys loaded from old credentials that only hold n/e/d
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger dP;   // d mod (p-1)
+    private final BigInteger dQ;   // d mod (q-1)
+    private final BigInteger qInv; // q^-1 mod p
+
+    private final KeyProfile profile;
+    private volatile PrivateKey oaepKey; // The same key for the JDK's OAEP cipher, built on first use
+
     public RSAKey() {
-        this(false, null);
+        this(KeyProfile.DEFAULT);
+    }
+
+    public RSAKey(KeyProfile profile) {
+        this(false, null, profile);
     }
     
     public RSAKey(boolean loadFromCredentials, Properties credentials) {
+        this(loadFromCredentials, credentials, KeyProfile.DEFAULT);
+    }
+
+    private RSAKey(boolean loadFromCredentials, Properties credentials, KeyProfile newKeyProfile) {
         if (loadFromCredentials && credentials != null) {
             // Load existing keys from credentials
             this.n = new BigInteger(credentials.getProperty("public.n"), 16);
             this.e = new BigInteger(credentials.getProperty("public.e"), 16);
             this.d = new BigInteger(credentials.getProperty("private.d"), 16);
-            System.out.println("[CLIENT] RSA keys loaded from credentials");
+            if (credentials.getProperty("private.p") != null && credentials.getProperty("private.q") != null) {
+                this.p = new BigInteger(credentials.getProperty("private.p"), 16);
+                this.q = new BigInteger(credentials.getProperty("private.q"), 16);
+                this.dP = new BigInteger(credentials.getProperty("private.dp"), 16);
+                this.dQ = new BigInteger(credentials.getProperty("private.dq"), 16);
+                this.qInv = new BigInteger(credentials.getProperty("private.qinv"), 16);
+                System.out.println("[CLIENT] RSA keys loaded from credentials (CRT enabled)");
+            } else {
+                // Old credentials file without prime factors, stay on the slow path
+                this.p = null;
+                this.q = null;
+                this.dP = null;
+                this.dQ = null;
+                this.qInv = null;
+                System.out.println("[CLIENT] RSA keys loaded from credentials (no CRT parameters)");
+            }
+            // Credentials from before key profiles were stored are classified by their modulus
+            this.profile = KeyProfile.fromName(credentials.getProperty("keyProfile"), KeyProfile.forModulus(n));
         } else {
             // Generate new keys
-            BigInteger[] keys = generateNewKeys();
+            this.profile = newKeyProfile;
+            BigInteger[] keys = generateNewKeys(newKeyProfile);
             this.n = keys[0];
             this.e = keys[1];
             this.d = keys[2];
+            this.p = keys[3];
+            this.q = keys[4];
+            this.dP = keys[5];
+            this.dQ = keys[6];
+            this.qInv = keys[7];
             System.out.println("[CLIENT] New RSA keys generated");
         }
     }
     
-    private BigInteger[] generateNewKeys() {
-        SecureRandom random = new SecureRandom(); // Allows for secure random number generation
-        
-        BigInteger p = BigInteger.probablePrime(512, random); // Generate a probable prime number p
-        BigInteger q = BigInteger.probablePrime(512, random); // Generate a probable prime number q
-        
-        // Ensure p and q are different
-        while (p.equals(q)) {
-            q = BigInteger.probablePrime(512, random);
-        }
-        
+    private BigInteger[] generateNewKeys(KeyProfile profile) {
+        // Prime search is slow, so key pairs are usually already waiting in the pool
+        return KeyPairPool.take(profile);
+    }
+
+    /*
+     * Derives the full key material from two primes.
+     * @return {n, e, d, p, q, dP, dQ, qInv} or null if e is not coprime to φ(n) and new primes are needed
+     */
+    static BigInteger[] buildKeyPair(BigInteger p, BigInteger q) {
         BigInteger n = p.multiply(q); // Calculate n = p * q
         BigInteger phi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)); // Calculate Euler's totient function φ(n) = (p-1)(q-1)
         BigInteger e = BigInteger.valueOf(65537); // Common choice for e, must be coprime to φ(n)
+        if (!e.gcd(phi).equals(BigInteger.ONE)) {
+            return null;
+        }
         BigInteger d = e.modInverse(phi); // Calculate d, the modular multiplicative inverse of e mod φ(n)
+
+        // Precompute the CRT parameters so private key operations can work mod p and mod q
+        BigInteger dP = d.mod(p.subtract(BigInteger.ONE));
+        BigInteger dQ = d.mod(q.subtract(BigInteger.ONE));
+        BigInteger qInv = q.modInverse(p);
         
         System.out.println("[CLIENT] Generated RSA key pair with n=" + n.toString(16).substring(0, 16) + "...");
         
-        return new BigInteger[]{n, e, d};
+        return new BigInteger[]{n, e, d, p, q, dP, dQ, qInv};
+    }
+
+    /*
+     * Computes c^d mod n. Uses the CRT (Garner's formula) if p and q are known,
+     * otherwise falls back to the plain modPow with the full private exponent.
+     */
+    private BigInteger privateOperation(BigInteger c) {
+        if (!hasCrtParameters()) {
+            return c.modPow(d, n);
+        }
+        BigInteger m1 = c.mod(p).modPow(dP, p); // c^dP mod p
+        BigInteger m2 = c.mod(q).modPow(dQ, q); // c^dQ mod q
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p); // (m1 - m2) * q^-1 mod p
+        return m2.add(h.multiply(q)); // m = m2 + h * q
+    }
+
+    public boolean hasCrtParameters() {
+        return p != null && q != null && dP != null && dQ != null && qInv != null;
     }
 
     public BigInteger sign(BigInteger message) {
-        return message.modPow(d, n);
+        return privateOperation(message);
     }
 
     public boolean verify(BigInteger message, BigInteger signature) {
@@ -84,7 +169,7 @@ public class RSAKey {
 
     public String decryptString(String encryptedHex) {
         BigInteger encryptedMessage = new BigInteger(encryptedHex, 16); // Convert the hexadecimal string back to a BigInteger
-        BigInteger decryptedMessage = encryptedMessage.modPow(d, n); // Decrypt the message using the private key (n, d)
+        BigInteger decryptedMessage = privateOperation(encryptedMessage); // Decrypt the message using the private key (n, d)
         return new String(decryptedMessage.toByteArray()); // Convert the decrypted BigInteger back to a string
     }
     
@@ -103,68 +188,577 @@ public class RSAKey {
         return encryptedMessage.toString(16); // Return the encrypted message as a hexadecimal string
     }
     
-    // Chunked encryption for longer messages
-    private static final int MAX_CHUNK_SIZE = 100; // Safe buffer for 1024-bit RSA
-    
     /*
-     * Encrypts a long string by splitting it into chunks if necessary.
-     * If the string is shorter than or equal to MAX_CHUNK_SIZE, it uses normal
+     * Maximum number of chars per chunk of the legacy CHUNKED: format.
+     * Derived from the recipient's modulus: a char takes at most 3 UTF-8 bytes,
+     * and the chunk must stay below n (one byte less than the modulus length).
+     */
+    public static int maxChunkSize(BigInteger modulus) {
+        return ((modulus.bitLength() + 7) / 8 - 1) / 3;
+    }
+
+    // Envelope format: "ENV1:" + Base64(version | flags | wrappedKeyLength(2) | wrappedKey | iv | ciphertext+tag)
+    // flags: ChatCompression.FLAG_DEFLATE if the plaintext was deflated before encryption
+    // version: 2 = key wrapped with RSA-OAEP, 1 = raw RSA (only read, from older clients)
+    public static final String ENVELOPE_PREFIX = "ENV1:";
+    public static final String CHUNKED_PREFIX = "CHUNKED:";
+    private static final byte ENVELOPE_VERSION = 2;
+    private static final byte LEGACY_ENVELOPE_VERSION = 1;
+
+    // OAEP with SHA-256 for the hash and for MGF1 (the JDK would use SHA-1 for MGF1 unless told otherwise)
+    private static final OAEPParameterSpec OAEP_PARAMETERS = new OAEPParameterSpec(
+            "SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+    private static final ThreadLocal<Cipher> oaepCache = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("RSA/ECB/OAEPPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("RSA-OAEP not available", e);
+        }
+    });
+
+    // Compact block format: "RSAB:" + Base64(version | flags | blockWidth(2) | block | block | ...)
+    // flags: as for envelopes, compressed data is split into blocks without regard to UTF-8
+    public static final String BLOCKS_PREFIX = "RSAB:";
+    private static final byte BLOCKS_VERSION = 2; // 2: byte-exact padded chunks
+    private static final int BLOCKS_HEADER_LENGTH = 4;
+    private static final int PADDING_OVERHEAD = 11; // 00 02, 8 random bytes, 00
+    private static final SecureRandom paddingRandom = new SecureRandom();
+
+    /*
+     * Format used by encryptLongString. ENVELOPE is the default, the per-chunk RSA formats
+     * are kept for peers that can't read envelopes yet.
+     */
+    public enum WireFormat {
+        ENVELOPE,       // "ENV1:" RSA-wrapped AES-GCM
+        RSA_BLOCKS,     // "RSAB:" fixed-width RSA blocks, Base64
+        LEGACY_CHUNKED  // "CHUNKED:" hex chunks joined with '|'
+    }
+
+    private static volatile WireFormat wireFormat = WireFormat.valueOf(System.getProperty("mchat.crypto.format", "ENVELOPE"));
+
+    public static void setWireFormat(WireFormat format) {
+        wireFormat = format;
+    }
+
+    public static WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /*
+     * Encrypts a message of any length for the given recipient.
+     * By default a hybrid envelope is used: one random AES-GCM key is wrapped with the
+     * recipient's RSA key and the text itself is encrypted with AES, so the cost is one
+     * RSA operation per message no matter how long it is.
      * @param plaintext The plaintext string to encrypt.
      * @param recipientN The modulus n of the recipient's public key.
      * @param recipientE The public exponent e of the recipient's public key.
-     * @return The encrypted string, either as a single chunk or as a chunked message
+     * @return The encrypted string in the configured wire format
      */
     public String encryptLongString(String plaintext, BigInteger recipientN, BigInteger recipientE) {
-        if (plaintext.length() <= MAX_CHUNK_SIZE) {
+        switch (wireFormat) {
+            case RSA_BLOCKS:
+                return encryptBlockString(plaintext, recipientN, recipientE);
+            case LEGACY_CHUNKED:
+                return encryptChunkedString(plaintext, recipientN, recipientE);
+            default:
+                return encryptEnvelope(plaintext, recipientN, recipientE);
+        }
+    }
+
+    /*
+     * Encrypts the plaintext into an "ENV1:" envelope for the given RSA recipient.
+     */
+    public static String encryptEnvelope(String plaintext, BigInteger recipientN, BigInteger recipientE) {
+        byte[] aesKey = AESCipher.newKey();
+        return sealEnvelope(plaintext, aesKey, wrapKey(aesKey, recipientN, recipientE));
+    }
+
+    /*
+     * Builds an "ENV1:" envelope around an already wrapped AES key.
+     * The envelope doesn't care how the key was wrapped, the recipient knows its own key type.
+     */
+    static String sealEnvelope(String plaintext, byte[] aesKey, byte[] wrappedKey) {
+        byte[] iv = AESCipher.newIv();
+        byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ChatCompression.compress(bytes);
+        byte[] header = {ENVELOPE_VERSION, compressed != null ? ChatCompression.FLAG_DEFLATE : 0}; // version, flags
+        byte[] ciphertext = AESCipher.encrypt(aesKey, iv, compressed != null ? compressed : bytes, header); // The header is authenticated too
+
+        ByteBuffer envelope = ByteBuffer.allocate(header.length + 2 + wrappedKey.length + iv.length + ciphertext.length);
+        envelope.put(header);
+        envelope.putShort((short) wrappedKey.length);
+        envelope.put(wrappedKey);
+        envelope.put(iv);
+        envelope.put(ciphertext);
+        return ENVELOPE_PREFIX + Base64.getEncoder().encodeToString(envelope.array());
+    }
+
+    /*
+     * Opens an "ENV1:" envelope with our private key.
+     */
+    public String decryptEnvelope(String envelopeText) {
+        return openEnvelope(envelopeText, this);
+    }
+
+    /*
+     * Opens an "ENV1:" envelope, the AES key is unwrapped with the given private key.
+     */
+    static String openEnvelope(String envelopeText, MessageKey ownKey) {
+        byte[] envelope = Base64.getDecoder().decode(envelopeText.substring(ENVELOPE_PREFIX.length()));
+        if (envelope.length < 4 || (envelope[0] != ENVELOPE_VERSION && envelope[0] != LEGACY_ENVELOPE_VERSION)) {
+            throw new IllegalArgumentException("Unsupported envelope version");
+        }
+        byte[] header = {envelope[0], envelope[1]};
+        if ((header[1] & ~ChatCompression.FLAG_DEFLATE) != 0) {
+            throw new IllegalArgumentException("Unsupported envelope flags");
+        }
+        int wrappedLength = ((envelope[2] & 0xff) << 8) | (envelope[3] & 0xff);
+        int ivOffset = 4 + wrappedLength;
+        int dataOffset = ivOffset + AESCipher.IV_LENGTH;
+        if (dataOffset > envelope.length) {
+            throw new IllegalArgumentException("Truncated envelope");
+        }
+
+        byte[] aesKey = envelope[0] == LEGACY_ENVELOPE_VERSION
+                ? ownKey.unwrapLegacyKey(envelope, 4, wrappedLength)
+                : ownKey.unwrapKey(envelope, 4, wrappedLength);
+        byte[] iv = java.util.Arrays.copyOfRange(envelope, ivOffset, dataOffset);
+        byte[] plaintext = AESCipher.decrypt(aesKey, iv, envelope, dataOffset, envelope.length - dataOffset, header);
+        return ChatCompression.toText(plaintext, 0, plaintext.length, header[1]);
+    }
+
+    /*
+     * Encrypts a symmetric key with the recipient's public key (RSA-OAEP, SHA-256).
+     * The result always has the byte length of the recipient's modulus.
+     */
+    public static byte[] wrapKey(byte[] key, BigInteger recipientN, BigInteger recipientE) {
+        try {
+            Cipher cipher = oaepCache.get();
+            cipher.init(Cipher.ENCRYPT_MODE, KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(recipientN, recipientE)),
+                    OAEP_PARAMETERS, paddingRandom);
+            return cipher.doFinal(key);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Key can't be wrapped for the recipient's key: " + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Decrypts a symmetric key that was wrapped with our public key.
+     * Throws IllegalArgumentException if the OAEP padding doesn't check out.
+     */
+    @Override
+    public byte[] unwrapKey(byte[] data, int offset, int length) {
+        byte[] key;
+        try {
+            Cipher cipher = oaepCache.get();
+            cipher.init(Cipher.DECRYPT_MODE, oaepKey(), OAEP_PARAMETERS);
+            key = cipher.doFinal(data, offset, length);
+        } catch (BadPaddingException e) {
+            throw new IllegalArgumentException("Wrapped key is invalid", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("RSA-OAEP decryption failed", e);
+        }
+        if (key.length != AESCipher.KEY_LENGTH) {
+            throw new IllegalArgumentException("Wrapped key has the wrong length");
+        }
+        return key;
+    }
+
+    /*
+     * Raw RSA unwrap (c^d mod n without padding) for envelopes and sessions of older clients.
+     */
+    @Override
+    public byte[] unwrapLegacyKey(byte[] data, int offset, int length) {
+        BigInteger wrapped = new BigInteger(1, data, offset, length);
+        return toFixedLength(privateOperation(wrapped), AESCipher.KEY_LENGTH);
+    }
+
+    private PrivateKey oaepKey() throws GeneralSecurityException {
+        PrivateKey key = oaepKey;
+        if (key == null) {
+            key = KeyFactory.getInstance("RSA").generatePrivate(hasCrtParameters()
+                    ? new RSAPrivateCrtKeySpec(n, e, d, p, q, dP, dQ, qInv)
+                    : new RSAPrivateKeySpec(n, d));
+            oaepKey = key;
+        }
+        return key;
+    }
+
+    // Left-pads (or strips the sign byte of) a BigInteger to exactly length bytes
+    private static byte[] toFixedLength(BigInteger value, int length) {
+        byte[] raw = value.toByteArray();
+        if (raw.length == length) {
+            return raw;
+        }
+        byte[] result = new byte[length];
+        if (raw.length > length) {
+            // Only leading zero bytes may be dropped, anything else would lose information
+            for (int i = 0; i < raw.length - length; i++) {
+                if (raw[i] != 0) {
+                    throw new IllegalArgumentException("Value does not fit into " + length + " bytes");
+                }
+            }
+            System.arraycopy(raw, raw.length - length, result, 0, length);
+        } else {
+            System.arraycopy(raw, 0, result, length - raw.length, raw.length);
+        }
+        return result;
+    }
+
+    // Messages with at least this many chunks are encrypted/decrypted on the fork-join pool
+    private static volatile int parallelChunkThreshold = Integer.getInteger("mchat.crypto.parallelThreshold", 8);
+    private static final ForkJoinPool chunkPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public static void setParallelChunkThreshold(int threshold) {
+        parallelChunkThreshold = threshold;
+    }
+
+    public static int getParallelChunkThreshold() {
+        return parallelChunkThreshold;
+    }
+
+    /*
+     * Runs the task for every chunk index. Chunks are independent, so above the threshold
+     * they are spread over the fork-join pool. Tasks write their result to their own index,
+     * so the output order always matches the input order.
+     */
+    private static void processChunks(int chunkCount, IntConsumer task) {
+        if (chunkCount < parallelChunkThreshold) {
+            for (int i = 0; i < chunkCount; i++) {
+                task.accept(i);
+            }
+        } else {
+            chunkPool.invoke(new ChunkTask(task, 0, chunkCount));
+        }
+    }
+
+    /*
+     * Splits the chunk range in halves until single chunks are left,
+     * one modPow per chunk is already enough work for a task.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer task;
+        private final int from;
+        private final int to;
+
+        ChunkTask(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(task, from, middle), new ChunkTask(task, middle, to));
+        }
+    }
+
+    /*
+     * Encrypts the plaintext into the compact "RSAB:" block format.
+     */
+    public String encryptBlockString(String plaintext, BigInteger recipientN, BigInteger recipientE) {
+        return BLOCKS_PREFIX + Base64.getEncoder().encodeToString(encryptBlocks(plaintext, recipientN, recipientE));
+    }
+
+    /*
+     * Encrypts the plaintext into fixed-width RSA blocks.
+     * The chunker works on the UTF-8 bytes and fills every block up to the real capacity
+     * of the recipient's modulus. Each chunk is padded like PKCS#1 v1.5 (00 02 random 00 data),
+     * which keeps leading zero bytes intact and makes equal chunks encrypt differently.
+     * Chunks never end inside a multi-byte UTF-8 sequence, unless the text was compressed
+     * (then the blocks can only be read as a whole anyway and are filled completely).
+     * Every block is exactly as wide as the modulus, so no separators or length fields
+     * per block are needed. The raw result can be sent as a binary frame.
+     * @return version | flags | blockWidth(2) | blocks
+     */
+    public byte[] encryptBlocks(String plaintext, BigInteger recipientN, BigInteger recipientE) {
+        int blockWidth = (recipientN.bitLength() + 7) / 8;
+        int capacity = blockWidth - PADDING_OVERHEAD;
+        if (capacity < 4) { // A chunk must at least be able to hold one full code point
+            throw new IllegalArgumentException("Modulus is too small for block encryption");
+        }
+        byte[] text = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ChatCompression.compress(text);
+        byte[] bytes = compressed != null ? compressed : text;
+        int[] chunkEnds = compressed != null ? splitFixed(bytes.length, capacity) : splitUtf8(bytes, capacity);
+
+        byte[] output = new byte[BLOCKS_HEADER_LENGTH + chunkEnds.length * blockWidth];
+        output[0] = BLOCKS_VERSION;
+        output[1] = compressed != null ? ChatCompression.FLAG_DEFLATE : 0; // flags
+        output[2] = (byte) (blockWidth >>> 8);
+        output[3] = (byte) blockWidth;
+
+        processChunks(chunkEnds.length, i -> {
+            int start = i == 0 ? 0 : chunkEnds[i - 1];
+            byte[] padded = pad(bytes, start, chunkEnds[i] - start, blockWidth);
+            BigInteger message = new BigInteger(1, padded); // Leading 00 byte, so always < n
+            writeFixedLength(message.modPow(recipientE, recipientN), output, BLOCKS_HEADER_LENGTH + i * blockWidth, blockWidth);
+        });
+        return output;
+    }
+
+    /*
+     * Returns the end offsets of chunks of at most capacity bytes.
+     * A chunk end is moved back while it would point at a UTF-8 continuation byte (10xxxxxx).
+     */
+    private static int[] splitUtf8(byte[] bytes, int capacity) {
+        // A chunk loses at most 3 bytes to the code point boundary
+        int[] ends = new int[bytes.length / (capacity - 3) + 2];
+        int count = 0;
+        int start = 0;
+        do {
+            int end = Math.min(start + capacity, bytes.length);
+            while (end < bytes.length && end > start && (bytes[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            ends[count++] = end;
+            start = end;
+        } while (start < bytes.length);
+        return java.util.Arrays.copyOf(ends, count);
+    }
+
+    // End offsets of chunks of exactly capacity bytes, the last one may be shorter
+    private static int[] splitFixed(int length, int capacity) {
+        int[] ends = new int[Math.max(1, (length + capacity - 1) / capacity)];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = Math.min((i + 1) * capacity, length);
+        }
+        return ends;
+    }
+
+    // 00 02 | at least 8 non-zero random bytes | 00 | data
+    private static byte[] pad(byte[] data, int offset, int length, int blockWidth) {
+        byte[] padded = new byte[blockWidth];
+        padded[1] = 2;
+        int separator = blockWidth - length - 1;
+        byte[] randomBytes = new byte[separator - 2];
+        paddingRandom.nextBytes(randomBytes);
+        for (int i = 0; i < randomBytes.length; i++) {
+            padded[2 + i] = randomBytes[i] == 0 ? 1 : randomBytes[i];
+        }
+        System.arraycopy(data, offset, padded, separator + 1, length);
+        return padded;
+    }
+
+    /*
+     * Decrypts data produced by encryptBlocks, e.g. straight from a binary frame.
+     * The chunks are joined on the byte level and decoded as UTF-8 once at the end.
+     */
+    public String decryptBlocks(byte[] data, int offset, int length) {
+        if (length < BLOCKS_HEADER_LENGTH || data[offset] != BLOCKS_VERSION) {
+            throw new IllegalArgumentException("Unsupported block format version");
+        }
+        byte flags = data[offset + 1];
+        if ((flags & ~ChatCompression.FLAG_DEFLATE) != 0) {
+            throw new IllegalArgumentException("Unsupported block format flags");
+        }
+        int blockWidth = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+        int payloadLength = length - BLOCKS_HEADER_LENGTH;
+        if (blockWidth == 0 || payloadLength % blockWidth != 0) {
+            throw new IllegalArgumentException("Truncated block data");
+        }
+
+        int blockCount = payloadLength / blockWidth;
+        byte[][] plainBlocks = new byte[blockCount][];
+        processChunks(blockCount, i -> {
+            BigInteger block = new BigInteger(1, data, offset + BLOCKS_HEADER_LENGTH + i * blockWidth, blockWidth);
+            plainBlocks[i] = privateOperation(block).toByteArray();
+        });
+
+        // Strip the padding of every block and join the data bytes
+        byte[] plaintext = new byte[blockCount * blockWidth];
+        int plaintextLength = 0;
+        for (byte[] plainBlock : plainBlocks) {
+            plaintextLength += unpad(plainBlock, blockWidth, plaintext, plaintextLength);
+        }
+        return ChatCompression.toText(plaintext, 0, plaintextLength, flags);
+    }
+
+    // Copies the data of a decrypted block into target and returns its length
+    private static int unpad(byte[] plainBlock, int blockWidth, byte[] target, int targetOffset) {
+        // toByteArray drops the leading 00, so a valid block starts with 02
+        if (plainBlock.length != blockWidth - 1 || plainBlock[0] != 2) {
+            throw new IllegalArgumentException("Invalid block padding");
+        }
+        int separator = 1;
+        while (separator < plainBlock.length && plainBlock[separator] != 0) {
+            separator++;
+        }
+        if (separator < 9 || separator == plainBlock.length) {
+            throw new IllegalArgumentException("Invalid block padding");
+        }
+        int dataLength = plainBlock.length - separator - 1;
+        System.arraycopy(plainBlock, separator + 1, target, targetOffset, dataLength);
+        return dataLength;
+    }
+
+    /*
+     * Decrypts block data (as produced by encryptBlocks) while it is still arriving.
+     * Every block holds whole UTF-8 code points, so the text of each complete block can be
+     * shown right away. Only the unfinished block is buffered.
+     * Compressed block data is inflated while it arrives, the text then comes in pieces of the
+     * inflated stream instead of per block.
+     */
+    public BlockStreamDecryptor newBlockDecryptor() {
+        return new BlockStreamDecryptor();
+    }
+
+    public class BlockStreamDecryptor {
+        private final byte[] header = new byte[BLOCKS_HEADER_LENGTH];
+        private int headerLength;
+        private byte[] partialBlock; // Allocated once the block width is known
+        private int partialLength;
+        private ChatCompression.Decompressor decompressor; // Only for compressed block data
+
+        /*
+         * Feeds the next bytes and returns the text of all blocks completed by them (may be empty)
+         */
+        public String update(byte[] data, int offset, int length) {
+            int end = offset + length;
+            while (headerLength < BLOCKS_HEADER_LENGTH && offset < end) {
+                header[headerLength++] = data[offset++];
+            }
+            if (headerLength < BLOCKS_HEADER_LENGTH) {
+                return "";
+            }
+            if (partialBlock == null) {
+                int blockWidth = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+                if (header[0] != BLOCKS_VERSION || blockWidth == 0) {
+                    throw new IllegalArgumentException("Unsupported block format version");
+                }
+                if ((header[1] & ~ChatCompression.FLAG_DEFLATE) != 0) {
+                    throw new IllegalArgumentException("Unsupported block format flags");
+                }
+                if ((header[1] & ChatCompression.FLAG_DEFLATE) != 0) {
+                    decompressor = ChatCompression.newDecompressor();
+                }
+                partialBlock = new byte[blockWidth];
+            }
+            int blockWidth = partialBlock.length;
+
+            // Complete the block left over from the last call, then take whole blocks straight from data
+            byte[] first = null;
+            if (partialLength > 0) {
+                int take = Math.min(blockWidth - partialLength, end - offset);
+                System.arraycopy(data, offset, partialBlock, partialLength, take);
+                partialLength += take;
+                offset += take;
+                if (partialLength < blockWidth) {
+                    return "";
+                }
+                first = partialBlock.clone();
+                partialLength = 0;
+            }
+            int wholeBlocks = (end - offset) / blockWidth;
+            int blockCount = wholeBlocks + (first != null ? 1 : 0);
+            byte[] firstBlock = first;
+            int blocksOffset = offset;
+            byte[][] plainBlocks = new byte[blockCount][];
+            processChunks(blockCount, i -> {
+                BigInteger block = firstBlock != null && i == 0
+                        ? new BigInteger(1, firstBlock)
+                        : new BigInteger(1, data, blocksOffset + (i - (firstBlock != null ? 1 : 0)) * blockWidth, blockWidth);
+                plainBlocks[i] = privateOperation(block).toByteArray();
+            });
+            offset += wholeBlocks * blockWidth;
+            partialLength = end - offset;
+            System.arraycopy(data, offset, partialBlock, 0, partialLength);
+
+            byte[] plaintext = new byte[blockCount * blockWidth];
+            int plaintextLength = 0;
+            for (byte[] plainBlock : plainBlocks) {
+                plaintextLength += unpad(plainBlock, blockWidth, plaintext, plaintextLength);
+            }
+            if (decompressor != null) {
+                return decompressor.update(plaintext, 0, plaintextLength);
+            }
+            return new String(plaintext, 0, plaintextLength, StandardCharsets.UTF_8);
+        }
+
+        /*
+         * Checks that the data ended on a block boundary
+         */
+        public void finish() {
+            if (headerLength < BLOCKS_HEADER_LENGTH || partialLength != 0) {
+                throw new IllegalArgumentException("Truncated block data");
+            }
+            if (decompressor != null) {
+                decompressor.finish();
+            }
+        }
+    }
+
+    // Writes the magnitude of value right-aligned into target[offset, offset + length)
+    private static void writeFixedLength(BigInteger value, byte[] target, int offset, int length) {
+        byte[] raw = value.toByteArray();
+        int skip = raw.length > length ? raw.length - length : 0; // Sign byte
+        System.arraycopy(raw, skip, target, offset + length - (raw.length - skip), raw.length - skip);
+    }
+
+    /*
+     * Encrypts a long string by splitting it into chunks if necessary (legacy format).
+     * If the string is shorter than or equal to maxChunkSize(recipientN), it uses normal
+     * @param plaintext The plaintext string to encrypt.
+     * @param recipientN The modulus n of the recipient's public key.
+     * @param recipientE The public exponent e of the recipient's public key.
+     * @return The encrypted string, either as a single chunk or as a chunked message
+     */
+    public String encryptChunkedString(String plaintext, BigInteger recipientN, BigInteger recipientE) {
+        int maxChunkSize = maxChunkSize(recipientN);
+        if (plaintext.length() <= maxChunkSize) {
             // Short message: normal encryption
             return encryptWithPublicKey(plaintext, recipientN, recipientE);
         }
         
         // Long message: split into chunks
-        StringBuilder result = new StringBuilder();
-        int offset = 0;
-        // Iterate through the plaintext string in chunks
-        while (offset < plaintext.length()) { 
-            int endIndex = Math.min(offset + MAX_CHUNK_SIZE, plaintext.length()); // Ensure we don't go out of bounds
-            String chunk = plaintext.substring(offset, endIndex); // Extract the current chunk
-            
-            String encryptedChunk = encryptWithPublicKey(chunk, recipientN, recipientE);
-            
-            if (result.length() > 0) { // Append a separator if this is not the first chunk
-                result.append("|"); // Chunk separator
-            }
-            result.append(encryptedChunk); // Add the Chunks together
-            
-            offset = endIndex; // Move to the next chunk
-        }
-        
-        return "CHUNKED:" + result.toString();
+        String[] encryptedChunks = new String[(plaintext.length() + maxChunkSize - 1) / maxChunkSize];
+        processChunks(encryptedChunks.length, i -> {
+            int offset = i * maxChunkSize;
+            int endIndex = Math.min(offset + maxChunkSize, plaintext.length()); // Ensure we don't go out of bounds
+            encryptedChunks[i] = encryptWithPublicKey(plaintext.substring(offset, endIndex), recipientN, recipientE);
+        });
+        return CHUNKED_PREFIX + String.join("|", encryptedChunks); // Chunk separator
     }
     /* 
-     * Decypts a long string that may be chunked.
-     * If the string starts with "CHUNKED:", it splits the string into chunks,
-     * decrypts each chunk, and concatenates the results.
-     * @param ciphertext The encrypted string, which may be chunked.
-     * @return The decrypted string, either as a single chunk or as a concatenated result
-     * Note: This method assumes that the ciphertext is either a single encrypted string or a chunked message 
+     * Decypts a long string in any of the supported formats.
+     * "ENV1:" envelopes are opened with one RSA-OAEP unwrap and AES-GCM, "RSAB:" blocks are
+     * decoded straight from the Base64 bytes. If the string starts with "CHUNKED:", it splits the string into chunks,
+     * decrypts each chunk (in parallel for long messages), and concatenates the results.
+     * @param ciphertext The encrypted string, which may be an envelope or chunked.
+     * @return The decrypted string
+     * Note: Anything without a known prefix is treated as a single legacy RSA chunk
      */
+    @Override
     public String decryptLongString(String ciphertext) {
-        if (ciphertext.startsWith("CHUNKED:")) {
+        if (ciphertext.startsWith(ENVELOPE_PREFIX)) {
+            return decryptEnvelope(ciphertext);
+        } else if (ciphertext.startsWith(BLOCKS_PREFIX)) {
+            byte[] data = Base64.getDecoder().decode(ciphertext.substring(BLOCKS_PREFIX.length()));
+            return decryptBlocks(data, 0, data.length);
+        } else if (ciphertext.startsWith(CHUNKED_PREFIX)) {
             // Chunked message: split and decrypt each part
-            String chunkedData = ciphertext.substring(8); // Remove "CHUNKED:" prefix
+            String chunkedData = ciphertext.substring(CHUNKED_PREFIX.length()); // Remove "CHUNKED:" prefix
             String[] chunks = chunkedData.split("\\|");
-            
-            StringBuilder result = new StringBuilder();
-            for (String chunk : chunks) {
-                result.append(decryptString(chunk));
-            }
-            return result.toString();
+            String[] decryptedChunks = new String[chunks.length];
+            processChunks(chunks.length, i -> decryptedChunks[i] = decryptString(chunks[i]));
+            return String.join("", decryptedChunks);
         } else {
             // Normal single chunk
             return decryptString(ciphertext);
         }
     }
     
+    public KeyProfile getProfile() {
+        return profile;
+    }
+
     public BigInteger getN() {
         return n; // Get the modulus n
     }
@@ -176,4 +770,24 @@ public class RSAKey {
     public BigInteger getD() {
         return d; // Get the private exponent d
     }
+
+    public BigInteger getP() {
+        return p; // First prime factor, null if unknown
+    }
+
+    public BigInteger getQ() {
+        return q; // Second prime factor, null if unknown
+    }
+
+    public BigInteger getDP() {
+        return dP;
+    }
+
+    public BigInteger getDQ() {
+        return dQ;
+    }
+
+    public BigInteger getQInv() {
+        return qInv;
+    }
 }
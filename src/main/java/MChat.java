@@ -1,4 +1,7 @@
 import WebSocketHandling.ChatClientEndpoint;
+import WebSocketHandling.ConnectionSupervisor;
+import WebSocketHandling.MessageListener;
+import WebSocketHandling.PartialMessageReceiver;
 import jakarta.websocket.ContainerProvider;
 import jakarta.websocket.WebSocketContainer;
 
@@ -16,9 +19,15 @@ import java.net.http.HttpResponse;
 */
 import utils.ToggleSwitches; 
 import utils.PublicKeyManager;
+import utils.SessionKeyManager;
+import utils.TaskExecutors;
+import Crypto.ECKey;
+import Crypto.KeyType;
+import Crypto.RSAKey;
 import model.Message;
 import model.User;
 import Authentication.Authentication;
+import Crypto.KeyPairPool;
 import utils.LoginDialog;
 import utils.CredentialsManager;
 import java.util.Properties;
@@ -42,7 +51,7 @@ public class MChat {
     private static DefaultListModel<String> onlineUsersModel;
     
     // Current settings for the chat client
-    private static boolean morseMode = false; // Morse code mode 
+    private static volatile boolean morseMode = false; // Morse code mode 
     
     // Core components
     private static User user; // Make user accessible throughout the class
@@ -63,6 +72,9 @@ public class MChat {
                         "  \\_/\\_/ \\___|_|\\___\\___/|_| |_| |_|\\___|  \\__\\___/  |_| |_| |_|____/ \\___|_| |_|\\__,_|\\__|\n" + //
                         "                                                                                           \n" + //
                         "");
+        // Start searching primes for new users while the login dialog is open
+        KeyPairPool.start();
+
         // Always show login dialog (supports login and registration)
         LoginDialog loginDialog = new LoginDialog(null);
         String username = loginDialog.showDialog();
@@ -91,7 +103,11 @@ public class MChat {
         
         // Only one ChatClientEndpoint, constructed with authentication
         chatClient = new ChatClientEndpoint(authentication, isNewUser);
-        System.out.println("[CLIENT] Public key: " + user.getKey().getE().toString(16) + " " + user.getKey().getN().toString(16));
+        if (user.getECKey() != null) {
+            System.out.println("[CLIENT] Public key (Ed25519/X25519): " + user.getECKey().getSigningPublicKeyHex() + " " + user.getECKey().getAgreementPublicKeyHex());
+        } else {
+            System.out.println("[CLIENT] Public key: " + user.getKey().getE().toString(16) + " " + user.getKey().getN().toString(16));
+        }
         
         String currentURI = "ws://localhost:8081/Gradle___com_maxstaneker_chatapp___chatApp_backend_1_0_SNAPSHOT_war/chat"; // Enter your IP and Port here
         //String currentURI = "ws://192.168.0.26:8081/Gradle___com_maxstaneker_chatapp___chatApp_backend_1_0_SNAPSHOT_war/chat";
@@ -99,7 +115,8 @@ public class MChat {
         WebSocketContainer container = ContainerProvider.getWebSocketContainer();
 
         try {
-            container.connectToServer(chatClient, URI.create(currentURI)); // Connect to the WebSocket server
+            // Connect to the WebSocket server (binary frames, compression if the server supports them), reconnects on its own afterwards
+            new ConnectionSupervisor(chatClient, container, URI.create(currentURI)).connect();
             
             // Initialize PublicKeyManager after successful connection
             PublicKeyManager.initialize(chatClient, user);
@@ -123,6 +140,9 @@ public class MChat {
         // Label for the toggle switch
         JLabel morseLabel = new JLabel("Morse Code Modus:");
 
+        // Connection state, updated while the connection is restored
+        JLabel connectionLabel = new JLabel("Verbunden");
+
         // Add item listener to toggle switch
         morseToggle.addToggleListener(isOn -> {
             if (isOn) {
@@ -220,6 +240,7 @@ public class MChat {
         buttonPanel.add(newChatButton);
         buttonPanel.add(morseLabel);
         buttonPanel.add(morseToggle);
+        buttonPanel.add(connectionLabel);
         
         // Kombiniere beide untere Panels
         JPanel bottomPanel = new JPanel(new BorderLayout());
@@ -343,19 +364,34 @@ public class MChat {
             
             // Get public key and encrypt message 
             String finalProcessedMessage = processedMessage; // Make final for lambda (I hate functional programming lol)
-            PublicKeyManager.getPublicKey(currentChatPartner).thenAccept(recipientKey -> {
+            String chatPartner = currentChatPartner; // The user may switch tabs before the key arrives
+            // Encrypt and send on the I/O executor, not on the thread that completed the key request (may be the EDT)
+            PublicKeyManager.getPublicKey(chatPartner).thenAcceptAsync(recipientKey -> {
                 if (recipientKey != null) {
                     try {
-                        String finalMessage = user.getKey().encryptLongString(finalProcessedMessage, recipientKey[0], recipientKey[1]);
-                        System.out.println("[CLIENT] Message encrypted for: " + currentChatPartner);
+                        String finalMessage;
+                        long messageId = Message.newId();
+                        if (SessionKeyManager.isEnabled()) {
+                            // Reuses the symmetric key of this conversation, RSA only on (re)key
+                            finalMessage = SessionKeyManager.encrypt(chatPartner, messageId, finalProcessedMessage, recipientKey);
+                        } else if (KeyType.forPublicKey(recipientKey) == KeyType.EC) {
+                            finalMessage = ECKey.encryptEnvelope(finalProcessedMessage, recipientKey[0]);
+                        } else if (user.getKey() == null) {
+                            // EC users have no RSA key of their own, the envelope only needs the recipient's key
+                            finalMessage = RSAKey.encryptEnvelope(finalProcessedMessage, recipientKey[0], recipientKey[1]);
+                        } else {
+                            finalMessage = user.getKey().encryptLongString(finalProcessedMessage, recipientKey[0], recipientKey[1]);
+                        }
+                        System.out.println("[CLIENT] Message encrypted for: " + chatPartner);
                         
                         // Send message
-                        Message message = new Message(user.getUsername(), finalMessage, currentChatPartner);
+                        Message message = new Message(user.getUsername(), finalMessage, chatPartner);
+                        message.setId(messageId); // Known to the SessionKeyManager in case the partner asks for it again
                         chatClient.sendMessage(message);
                         
                         // Display the sent message in the current chat tab (show original message)
                         SwingUtilities.invokeLater(() -> {
-                            JTextPane currentChatPane = chatTabs.get(currentChatPartner);
+                            JTextPane currentChatPane = chatTabs.get(chatPartner);
                             if (currentChatPane != null) {
                                 String currentText = currentChatPane.getText();
                                 if (currentText == null || currentText.trim().isEmpty()) {
@@ -376,12 +412,12 @@ public class MChat {
                         });
                     }
                 } else {
-                    System.err.println("[CLIENT] Could not retrieve public key for: " + currentChatPartner);
+                    System.err.println("[CLIENT] Could not retrieve public key for: " + chatPartner);
                     SwingUtilities.invokeLater(() -> {
-                        JOptionPane.showMessageDialog(frame, "Verschlüsselungsschlüssel für " + currentChatPartner + " nicht verfügbar", "Fehler", JOptionPane.ERROR_MESSAGE);
+                        JOptionPane.showMessageDialog(frame, "Verschlüsselungsschlüssel für " + chatPartner + " nicht verfügbar", "Fehler", JOptionPane.ERROR_MESSAGE);
                     });
                 }
-            }).exceptionally(throwable -> {
+            }, TaskExecutors.io()).exceptionally(throwable -> {
                 System.err.println("[CLIENT] Failed to get public key: " + throwable.getMessage());
                 SwingUtilities.invokeLater(() -> {
                     JOptionPane.showMessageDialog(frame, "Fehler beim Laden des Verschlüsselungsschlüssels: " + throwable.getMessage(), "Fehler", JOptionPane.ERROR_MESSAGE);
@@ -394,102 +430,163 @@ public class MChat {
         });
 
         // Waiting for new Messages
-        chatClient.setMessageListener(message -> {
-            SwingUtilities.invokeLater(() -> {
-                // Handle online users list updates
-                if ("online-users".equals(message.getSender())) {
-                    String onlineUsersData = message.getContent().substring("online-users:".length());
-                    updateOnlineUsersList(onlineUsersData);
-                    return;
-                }
-                
-                // Handle public key responses (now sender is "public-key")
-                if ("public-key".equals(message.getSender()) || message.getContent().startsWith("public-key:") || message.getContent().startsWith("public-key-not-found:")) {
-                    PublicKeyManager.handlePublicKeyResponse(message.getContent());
-                    return;
-                }
-                
-                // Handle system messages (like chat initialization confirmations)
-                if ("system".equals(message.getSender()) || message.getContent().startsWith("chat-init-success:")) {
-                    String confirmedPartner = message.getContent().substring("chat-init-success:".length());
+        chatClient.setMessageListener(new MessageListener() {
+            @Override
+            public void onOnlineUsers(String onlineUsers) {
+                SwingUtilities.invokeLater(() -> updateOnlineUsersList(onlineUsers));
+            }
+
+            @Override
+            public void onConnectionStatus(boolean connected, String status) {
+                SwingUtilities.invokeLater(() -> {
+                    connectionLabel.setText(status);
+                    connectionLabel.setForeground(connected ? java.awt.Color.DARK_GRAY : java.awt.Color.RED);
+                });
+            }
+
+            @Override
+            public void onPublicKeyResponse(String response) {
+                // Thread safe, no need to go through the EDT
+                PublicKeyManager.handlePublicKeyResponse(response);
+            }
+
+            // Handle system messages (chat initialization confirmations)
+            @Override
+            public void onChatInitSuccess(String confirmedPartner) {
+                SwingUtilities.invokeLater(() -> {
                     System.out.println("[CLIENT] Chat initialization confirmed for: " + confirmedPartner);
                     JOptionPane.showMessageDialog(frame, "Chat mit " + confirmedPartner + " erfolgreich gestartet.", "Chat bereit", JOptionPane.INFORMATION_MESSAGE);
-                    return;
-                } else if ("system".equals(message.getSender()) || message.getContent().startsWith("chat-init-failure:")) {
-                    String errorMessage = message.getContent().substring("chat-init-failure:".length());
+                });
+            }
+
+            @Override
+            public void onChatInitFailure(String errorMessage) {
+                SwingUtilities.invokeLater(() -> {
                     System.err.println("[CLIENT] Chat initialization failed: " + errorMessage);
                     JOptionPane.showMessageDialog(frame, "Chat-Start fehlgeschlagen: " + errorMessage, "Fehler", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                
+                });
+            }
+
+            // Runs on an inbound worker of the sender's conversation, so decryption stays off the EDT
+            @Override
+            public void onNewMessage(Message message) {
                 // Handle regular chat messages (encrypted)
                 String sender = message.getSender();
-                if (!sender.equals("system")) {
-                    // Get or create chat tab for this sender
-                    JTextPane chatPane = chatTabs.get(sender);
-                    if (chatPane == null) {
-                        // Create new tab for unknown sender
-                        chatPane = new JTextPane();
-                        chatPane.setEditable(false);
-                        JScrollPane chatScroll = new JScrollPane(chatPane);
-                        
-                        chatTabs.put(sender, chatPane);
-                        tabbedPane.addTab(sender, chatScroll);
-                        
-                        // Show notification for new chat
-                        JOptionPane.showMessageDialog(frame, "Neue Nachricht von " + sender, "Neue Nachricht", JOptionPane.INFORMATION_MESSAGE);
-                        
-                        // Preload public key for this new sender
-                        PublicKeyManager.preloadPublicKey(sender);
+                if (sender.equals("system")) {
+                    return;
+                }
+                if (message.getContent() != null && message.getContent().startsWith(SessionKeyManager.REKEY_PREFIX)) {
+                    resendAfterRekey(sender, message.getContent());
+                    return;
+                }
+
+                // Decrypt the message
+                String encryptedContent = message.getContent();
+                String decryptedContent;
+                try {
+                    // Decrypt with own private key
+                    decryptedContent = SessionKeyManager.decrypt(sender, encryptedContent, user.getMessageKey());
+                    System.out.println("[CLIENT] Message decrypted from: " + sender);
+
+                    // Decode Morse if detected
+                    if (decryptedContent.matches(".*[.-]{2,}.*") && morseMode == true) {
+                        String decodedMorse = utils.Morsecode.fromMorse(decryptedContent);
+                        decryptedContent = decodedMorse + " (Morse decoded)";
                     }
-                    
-                    // Decrypt the message
-                    String encryptedContent = message.getContent();
-                    String decryptedContent = encryptedContent;
-                    
-                    try {
-                        // Decrypt with own private key
-                        decryptedContent = user.getKey().decryptLongString(encryptedContent);
-                        System.out.println("[CLIENT] Message decrypted from: " + sender);
-                        
+                } catch (Exception ex) {
+                    System.err.println("[CLIENT] Decryption failed: " + ex.getMessage());
+                    String rekeyRequest = SessionKeyManager.rekeyRequest(message);
+                    if (rekeyRequest != null) {
+                        // The key of this session never reached us, the sender starts a new one and sends the message again
+                        chatClient.sendMessage(new Message(user.getUsername(), rekeyRequest, sender));
+                        decryptedContent = "[Schlüssel fehlt - Nachricht wird erneut angefordert]";
+                    } else {
+                        decryptedContent = "[Verschlüsselte Nachricht - Entschlüsselung fehlgeschlagen]";
+                    }
+                }
+
+                // Only the finished text goes to the EDT
+                String displayMessage = sender + ": " + decryptedContent + " 🔒\n";
+                SwingUtilities.invokeLater(() -> {
+                    System.out.println("[MESSAGE HANDLING] Received encrypted message from: " + sender);
+                    appendToChat(sender, displayMessage);
+                });
+            }
 
-                        // Decode Morse if detected
-                        if (decryptedContent.matches(".*[.-]{2,}.*") && morseMode == true) {
-                            String decodedMorse = utils.Morsecode.fromMorse(decryptedContent);
-                            decryptedContent = decodedMorse + " (Morse decoded)";
+            // Large RSA block messages are decrypted and shown block by block while they arrive
+            @Override
+            public PartialMessageReceiver onPartialMessageStart(Message header) {
+                if (user.getKey() == null) {
+                    return null; // Block messages are always for RSA keys
+                }
+                String sender = header.getSender();
+                RSAKey.BlockStreamDecryptor decryptor = user.getKey().newBlockDecryptor();
+                SwingUtilities.invokeLater(() -> appendToChat(sender, sender + ": "));
+                return new PartialMessageReceiver() {
+                    @Override
+                    public void onContent(byte[] data) {
+                        String text = decryptor.update(data, 0, data.length);
+                        if (!text.isEmpty()) {
+                            SwingUtilities.invokeLater(() -> appendToChat(sender, text));
                         }
-                        
-                    } catch (Exception ex) {
-                        System.err.println("[CLIENT] Decryption failed: " + ex.getMessage());
-                        decryptedContent = "[Verschlüsselte Nachricht - Entschlüsselung fehlgeschlagen]";
                     }
-                    
-                    // Add message to the appropriate chat tab
-                    String currentText = chatPane.getText();
-                    if (currentText == null || currentText.trim().isEmpty()) {
-                        currentText = "";
+
+                    @Override
+                    public void onComplete() {
+                        decryptor.finish();
+                        System.out.println("[MESSAGE HANDLING] Received streamed message from: " + sender);
+                        SwingUtilities.invokeLater(() -> appendToChat(sender, " 🔒\n"));
                     }
-                    
-                    String displayMessage = sender + ": " + decryptedContent + " 🔒\n";
-                    String newText = currentText + displayMessage;
-                    System.out.println("[MESSAGE HANDLING] Received encrypted message from: " + sender);
-                    chatPane.setText(newText);
-                    
-                    // Auto-scroll to bottom
-                    chatPane.setCaretPosition(chatPane.getDocument().getLength());
-                    
-                    // Highlight tab if not currently selected
-                    for (int i = 0; i < tabbedPane.getTabCount(); i++) {
-                        if (tabbedPane.getTitleAt(i).equals(sender)) {
-                            if (tabbedPane.getSelectedIndex() != i) {
-                                // Add visual indicator for new message (could be enhanced with colors)
-                                tabbedPane.setTitleAt(i, sender + " *");
-                            }
-                            break;
+
+                    @Override
+                    public void onFailure(Exception reason) {
+                        System.err.println("[CLIENT] Decryption failed: " + reason.getMessage());
+                        SwingUtilities.invokeLater(() -> appendToChat(sender, " [Entschlüsselung abgebrochen]\n"));
+                    }
+                };
+            }
+
+            // Must run on the EDT
+            private void appendToChat(String sender, String text) {
+                // Get or create chat tab for this sender
+                JTextPane chatPane = chatTabs.get(sender);
+                if (chatPane == null) {
+                    // Create new tab for unknown sender
+                    chatPane = new JTextPane();
+                    chatPane.setEditable(false);
+                    JScrollPane chatScroll = new JScrollPane(chatPane);
+
+                    chatTabs.put(sender, chatPane);
+                    tabbedPane.addTab(sender, chatScroll);
+
+                    // Show notification for new chat
+                    JOptionPane.showMessageDialog(frame, "Neue Nachricht von " + sender, "Neue Nachricht", JOptionPane.INFORMATION_MESSAGE);
+
+                    // Preload public key for this new sender
+                    PublicKeyManager.preloadPublicKey(sender);
+                }
+
+                // Add text to the appropriate chat tab
+                try {
+                    chatPane.getDocument().insertString(chatPane.getDocument().getLength(), text, null);
+                } catch (javax.swing.text.BadLocationException ex) {
+                    System.err.println("[CLIENT] Could not append message: " + ex.getMessage());
+                }
+
+                // Auto-scroll to bottom
+                chatPane.setCaretPosition(chatPane.getDocument().getLength());
+
+                // Highlight tab if not currently selected
+                for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+                    if (tabbedPane.getTitleAt(i).equals(sender)) {
+                        if (tabbedPane.getSelectedIndex() != i) {
+                            // Add visual indicator for new message (could be enhanced with colors)
+                            tabbedPane.setTitleAt(i, sender + " *");
                         }
+                        break;
                     }
                 }
-            });
+            }
         });
 
     }
@@ -506,6 +603,7 @@ public class MChat {
                 // Clear current list
                 onlineUsersModel.clear();
                 
+                java.util.List<String> onlineUsers = new java.util.ArrayList<>();
                 if (!userListString.trim().isEmpty()) {
                     // Split by comma and clean up quotes
                     String[] users = userListString.split(",");
@@ -515,8 +613,12 @@ public class MChat {
                             user = user.substring(1, user.length() - 1);
                         }
                         onlineUsersModel.addElement(user);
+                        onlineUsers.add(user);
                     }
                 }
+
+                // One request for all missing keys, so opening a chat doesn't wait for a key
+                PublicKeyManager.prefetch(onlineUsers);
                 
                 System.out.println("[CLIENT] Updated online users list: " + onlineUsersModel.getSize() + " users");
             }
@@ -525,6 +627,28 @@ public class MChat {
         }
     }
 
+    // The partner couldn't read one of our session messages, send it again with a new session key
+    private static void resendAfterRekey(String partner, String request) {
+        String plaintext = SessionKeyManager.handleRekeyRequest(partner, request);
+        if (plaintext == null) {
+            return; // Too old, the next message starts the new session anyway
+        }
+        PublicKeyManager.getPublicKey(partner).thenAcceptAsync(recipientKey -> {
+            if (recipientKey == null) {
+                System.err.println("[CLIENT] Could not retrieve public key for: " + partner);
+                return;
+            }
+            long messageId = Message.newId(); // The old id was already seen by the server
+            Message message = new Message(user.getUsername(), SessionKeyManager.encrypt(partner, messageId, plaintext, recipientKey), partner);
+            message.setId(messageId);
+            chatClient.sendMessage(message);
+            System.out.println("[CLIENT] Sent message to " + partner + " again with a new session key");
+        }, TaskExecutors.io()).exceptionally(throwable -> {
+            System.err.println("[CLIENT] Failed to send message again: " + throwable.getMessage());
+            return null;
+        });
+    }
+
     // Helper method to add close functionality to tabs
     private static void addTabCloseFeature() {
         tabbedPane.addMouseListener(new java.awt.event.MouseAdapter() {
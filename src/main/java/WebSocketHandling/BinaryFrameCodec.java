@@ -0,0 +1,247 @@
+package WebSocketHandling;
+
+import Crypto.RSAKey;
+import model.Message;
+import utils.SessionKeyManager;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/*
+ * Compact binary layout of chat messages for the "mchat-binary-v1" subprotocol.
+ * Frame: type(1) | contentKind(1) | varint senderLength | sender | varint recipientLength | recipient
+ *        | varint timestamp | varint contentLength | content
+ * Encrypted contents ("ENV1:", "SES1:", "RSAB:" + Base64) are carried as raw bytes and only the
+ * prefix is stored as content kind, everything else is UTF-8 text. Decoding restores the exact
+ * content string, so the crypto code does not care which protocol a message arrived on.
+ * Strings are UTF-8, a recipient length of 0 means no recipient.
+ * Messages with an id or sequence number use the type TYPE_SEQUENCED_MESSAGE, which has
+ * varint id | varint seq between timestamp and content length.
+ * Batch: TYPE_BATCH(1) | varint count | (varint frameLength | message frame) * count,
+ * used to deliver missed messages in one frame after a "sync-since:" request.
+ * @author Max Staneker, Mia Schienagel
+ */
+public final class BinaryFrameCodec {
+    public static final String SUBPROTOCOL = "mchat-binary-v1";
+
+    public static final byte TYPE_MESSAGE = 1;
+    public static final byte TYPE_SEQUENCED_MESSAGE = 2;
+    public static final byte TYPE_BATCH = 3;
+
+    private static final byte CONTENT_TEXT = 0;
+    private static final String[] BINARY_PREFIXES = { // Index is the content kind
+            null, RSAKey.ENVELOPE_PREFIX, SessionKeyManager.SESSION_PREFIX, RSAKey.BLOCKS_PREFIX
+    };
+
+    private BinaryFrameCodec() {
+    }
+
+    public static ByteBuffer encode(Message message) {
+        byte contentKind = CONTENT_TEXT;
+        byte[] content = null;
+        String text = message.getContent() != null ? message.getContent() : "";
+        for (byte kind = 1; kind < BINARY_PREFIXES.length; kind++) {
+            if (text.startsWith(BINARY_PREFIXES[kind])) {
+                try {
+                    content = Base64.getDecoder().decode(text.substring(BINARY_PREFIXES[kind].length()));
+                    contentKind = kind;
+                } catch (IllegalArgumentException e) {
+                    // Not our Base64, send as text
+                }
+                break;
+            }
+        }
+        if (content == null) {
+            content = text.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] sender = utf8(message.getSender());
+        byte[] recipient = utf8(message.getRecipient());
+
+        boolean sequenced = message.getId() != 0 || message.getSeq() != 0;
+        ByteBuffer frame = ByteBuffer.allocate(2 + 5 + sender.length + 5 + recipient.length + 10 + (sequenced ? 20 : 0) + 5 + content.length);
+        frame.put(sequenced ? TYPE_SEQUENCED_MESSAGE : TYPE_MESSAGE).put(contentKind);
+        putBytes(frame, sender);
+        putBytes(frame, recipient);
+        putVarLong(frame, message.getTimestamp());
+        if (sequenced) {
+            putVarLong(frame, message.getId());
+            putVarLong(frame, message.getSeq());
+        }
+        putBytes(frame, content);
+        frame.flip();
+        return frame;
+    }
+
+    public static ByteBuffer encodeBatch(List<Message> messages) {
+        List<ByteBuffer> frames = new ArrayList<>(messages.size());
+        int length = 1 + 5;
+        for (Message message : messages) {
+            ByteBuffer frame = encode(message);
+            frames.add(frame);
+            length += 5 + frame.remaining();
+        }
+        ByteBuffer batch = ByteBuffer.allocate(length);
+        batch.put(TYPE_BATCH);
+        putVarLong(batch, frames.size());
+        for (ByteBuffer frame : frames) {
+            putVarLong(batch, frame.remaining());
+            batch.put(frame);
+        }
+        batch.flip();
+        return batch;
+    }
+
+    /**
+     * Everything in front of the content, which is enough to route a message before its content arrived
+     */
+    public static final class Header {
+        public final byte contentKind;
+        public final String sender;
+        public final String recipient; // null if none
+        public final long timestamp;
+        public final long id;  // 0 if none
+        public final long seq; // 0 if none
+        public final int contentLength;
+
+        Header(byte contentKind, String sender, String recipient, long timestamp, long id, long seq, int contentLength) {
+            this.contentKind = contentKind;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.timestamp = timestamp;
+            this.id = id;
+            this.seq = seq;
+            this.contentLength = contentLength;
+        }
+
+        // Content is in the "RSAB:" block format, which can be decrypted block by block
+        public boolean hasBlockContent() {
+            return RSAKey.BLOCKS_PREFIX.equals(BINARY_PREFIXES[contentKind]);
+        }
+
+        // Message without content
+        public Message toMessage() {
+            Message message = new Message(sender, null, recipient);
+            message.setTimestamp(timestamp);
+            message.setId(id);
+            message.setSeq(seq);
+            return message;
+        }
+    }
+
+    /**
+     * Reads the header and leaves the buffer at the start of the content.
+     * Throws BufferUnderflowException if the header is not complete yet.
+     */
+    public static Header decodeHeader(ByteBuffer frame) {
+        byte type = frame.get();
+        if (type != TYPE_MESSAGE && type != TYPE_SEQUENCED_MESSAGE) {
+            throw new IllegalArgumentException("Unknown binary frame type: " + type);
+        }
+        byte contentKind = frame.get();
+        if (contentKind < 0 || contentKind >= BINARY_PREFIXES.length) {
+            throw new IllegalArgumentException("Unknown content kind: " + contentKind);
+        }
+        String sender = getString(frame);
+        String recipient = getString(frame);
+        long timestamp = getVarLong(frame);
+        long id = type == TYPE_SEQUENCED_MESSAGE ? getVarLong(frame) : 0;
+        long seq = type == TYPE_SEQUENCED_MESSAGE ? getVarLong(frame) : 0;
+        int contentLength = getVarInt(frame);
+        return new Header(contentKind, sender, recipient.isEmpty() ? null : recipient, timestamp, id, seq, contentLength);
+    }
+
+    // Frames with this first byte have a message header that decodeHeader can read
+    public static boolean isMessageFrame(byte type) {
+        return type == TYPE_MESSAGE || type == TYPE_SEQUENCED_MESSAGE;
+    }
+
+    public static Message decode(ByteBuffer frame) {
+        Header header = decodeHeader(frame);
+        if (header.contentLength > frame.remaining()) {
+            throw new IllegalArgumentException("Length " + header.contentLength + " exceeds frame");
+        }
+        byte[] raw = new byte[header.contentLength];
+        frame.get(raw);
+
+        Message message = header.toMessage();
+        message.setContent(header.contentKind == CONTENT_TEXT
+                ? new String(raw, StandardCharsets.UTF_8)
+                : BINARY_PREFIXES[header.contentKind] + Base64.getEncoder().encodeToString(raw));
+        return message;
+    }
+
+    /**
+     * Decodes a message frame or a batch
+     */
+    public static List<Message> decodeAll(ByteBuffer frame) {
+        if (frame.get(frame.position()) != TYPE_BATCH) {
+            return List.of(decode(frame));
+        }
+        frame.get();
+        int count = getVarInt(frame);
+        List<Message> messages = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            int length = getVarInt(frame);
+            if (length > frame.remaining()) {
+                throw new IllegalArgumentException("Length " + length + " exceeds batch");
+            }
+            ByteBuffer message = frame.slice();
+            message.limit(length);
+            messages.add(decode(message));
+            frame.position(frame.position() + length);
+        }
+        return messages;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer frame, byte[] bytes) {
+        putVarLong(frame, bytes.length);
+        frame.put(bytes);
+    }
+
+    private static String getString(ByteBuffer frame) {
+        int length = getVarInt(frame);
+        if (length > frame.remaining()) {
+            throw new BufferUnderflowException(); // Incomplete header, or a broken length
+        }
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Unsigned LEB128, 7 bits per byte, high bit set if more bytes follow
+    private static void putVarLong(ByteBuffer frame, long value) {
+        while ((value & ~0x7FL) != 0) {
+            frame.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        frame.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer frame) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = frame.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int getVarInt(ByteBuffer frame) {
+        long value = getVarLong(frame);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Length " + value + " too large");
+        }
+        return (int) value;
+    }
+}
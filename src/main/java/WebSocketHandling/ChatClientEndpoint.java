@@ -10,16 +10,34 @@ import jakarta.websocket.OnOpen; // Annotation to handle opening a WebSocket con
 import jakarta.websocket.OnClose; // Annotation to handle closing a WebSocket connection
 import jakarta.websocket.OnError; // Annotation to handle errors in WebSocket communication
 import jakarta.websocket.WebSocketContainer; // Managed Entry Point
-import jakarta.json.bind.Jsonb; // JSON Binding API for converting Java objects to JSON and vice versa
-import jakarta.json.bind.JsonbBuilder;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
 
+import java.io.IOException;
 import java.net.URI; // For URI handling
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /*
  * This class represents a WebSocket client endpoint for handling chat messages.
- * It also handles sending and receiving messages, maintaining a buffer of the last 10 messages,
- * and notifying listeners about new messages.
- * The class uses JSON Binding (Jsonb) for serializing and deserializing Message objects.
+ * It also handles sending and receiving messages, keeping the last received messages in a
+ * MessageRingBuffer (see getMessageRing()), and notifying listeners about new messages.
+ * Incoming frames are routed by a ProtocolDispatcher, see createDispatcher().
+ * They are handled on the threads of an InboundPipeline, chat messages reach the listener
+ * on the worker of their conversation and never on the WebSocket read thread.
+ * Message objects are serialized with MessageCodec (JSON) or BinaryFrameCodec (binary frames).
+ * Messages are only sent after auth-success, until then (and while a ConnectionSupervisor
+ * restores a lost connection) they wait in the outbox and are sent in order afterwards.
+ * Outgoing chat messages get an id, incoming ones go through a DeliveryTracker which drops
+ * duplicates and asks the server for missed messages ("sync-since:", also after every reconnect).
+ * If the server handed out a resumption ticket, the next connection starts with "resume:" instead
+ * of the challenge handshake (one round trip, no signature), a rejected ticket falls back to it.
  * It implements the MessageListener interface to notify about new messages.
  * The WebSocket annotations (@OnOpen, @OnMessage, @OnClose, @OnError) are used to define methods
  * that handle the respective WebSocket events.
@@ -30,31 +48,89 @@ import java.net.URI; // For URI handling
 import Authentication.Authentication; // Importing the Authentication class for handling user authentication
 import model.User; // Importing the User model class for user-related operations
 import model.Message;
+import model.MessageCodec;
 
-@ClientEndpoint // Marks this class as a WebSocket client endpoint
+@ClientEndpoint(subprotocols = {BinaryFrameCodec.SUBPROTOCOL}) // Marks this class as a WebSocket client endpoint, offers binary frames
 public class ChatClientEndpoint {
     
-    private static final Jsonb jsonb = JsonbBuilder.create();
+    // Binary chat frames are used if the server accepts the subprotocol, -Dmchat.protocol=json to always use JSON
+    private static final boolean BINARY_ENABLED = !"json".equals(System.getProperty("mchat.protocol"));
 
     private Session userSession; // Represents the WebSocket session
-    private Message lastMessage;
-    private final Message[] messageBuffer = new Message[10]; // Buffer for storing the last 10 messages
-    private int bufferIndex = 0; // Index for the message buffer
+    private final MessageRingBuffer messageRing = new MessageRingBuffer(); // Only written by the inbound parse thread
 
-    private MessageListener listener;
+    private volatile MessageListener listener;
     private final Authentication authentication; // Added Authentication field
+    private final ProtocolDispatcher dispatcher;
+    private final InboundPipeline inboundPipeline; // Parsing and decryption off the read thread
+    private final PartialFrameReader partialFrameReader; // Only used on the parse stage
+    private final StringBuilder textParts = new StringBuilder(); // Only used on the read thread
+    private volatile boolean binaryFrames; // Negotiated when connecting
+    private volatile CompressionStats compressionStats = new CompressionStats(); // Of the current connection
+    private final OutboundQueue outboundQueue = new OutboundQueue(); // All frames go through here, one writer
+    private static final int OUTBOX_CAPACITY = Integer.getInteger("mchat.outbox.capacity", 1024);
+    private final Deque<PendingMessage> outbox = new ArrayDeque<>(); // Guarded by itself, as is authenticated
+    private volatile boolean authenticated;
+    private volatile ConnectionSupervisor supervisor;
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker(this::requestSync);
+
+    // Session resumption, -Dmchat.resume=false always runs the full challenge
+    private static final boolean RESUME_ENABLED = !"false".equals(System.getProperty("mchat.resume"));
+    private volatile String resumeTicket; // Single use, cleared when presented
+    private volatile long resumeTicketExpiry;
+
+    // A message waiting for the connection
+    private static class PendingMessage {
+        final Message message;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
 
     // Constructor with Authentication parameter
     public ChatClientEndpoint(Authentication authentication) {
         this.authentication = authentication;
+        this.dispatcher = createDispatcher();
+        this.inboundPipeline = new InboundPipeline(dispatcher);
+        this.partialFrameReader = new PartialFrameReader(inboundPipeline, this::onPartialMessageStart, dispatcher::dispatch);
     }
     
     // Constructor for backward compatibility
     public ChatClientEndpoint(Authentication authentication, boolean isNewUser) {
-        this.authentication = authentication;
+        this(authentication);
         // isNewUser is ignored since registration happens in LoginDialog
     }
 
+    /**
+     * Connects to the server, offering binary frames and permessage-deflate
+     */
+    public Session connect(WebSocketContainer container, URI uri) throws DeploymentException, IOException {
+        compressionStats = new CompressionStats();
+        return WebSocketConnector.connect(container, new ProgrammaticEndpoint(), uri, compressionStats, BinaryFrameCodec.SUBPROTOCOL);
+    }
+
+    // Routes the programmatic API to the annotated methods of this class
+    private class ProgrammaticEndpoint extends Endpoint {
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            session.addMessageHandler(String.class, (MessageHandler.Partial<String>) ChatClientEndpoint.this::onMessage);
+            session.addMessageHandler(ByteBuffer.class, (MessageHandler.Partial<ByteBuffer>) ChatClientEndpoint.this::onBinaryMessage);
+            ChatClientEndpoint.this.onOpen(session);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            ChatClientEndpoint.this.onClose(session);
+        }
+
+        @Override
+        public void onError(Session session, Throwable throwable) {
+            ChatClientEndpoint.this.onError(session, throwable);
+        }
+    }
+
     public void setMessageListener(MessageListener listener) {
         this.listener = listener;
     }
@@ -62,120 +138,302 @@ public class ChatClientEndpoint {
     @OnOpen // Method to handle opening a WebSocket connection
     public void onOpen(Session userSession) {
         this.userSession = userSession; // Store the session for later use
-        System.out.println("[CLIENT] Connected to server: " + userSession.getBasicRemote());
-        try {
-            // All users (new and existing) need to authenticate
-            // Registration happens in LoginDialog, so here we only authenticate
-            userSession.getBasicRemote().sendText("auth-request");
-            System.out.println("[CLIENT] Sent auth-request to server. " + userSession.getId());
-        } catch (Exception e) {
-            System.err.println("[CLIENT] Error sending request: " + e.getMessage());
-            throw new RuntimeException("Failed to send request", e);
+        outboundQueue.attach(userSession);
+        binaryFrames = BINARY_ENABLED && BinaryFrameCodec.SUBPROTOCOL.equals(userSession.getNegotiatedSubprotocol());
+        System.out.println("[CLIENT] Connected to server: " + userSession.getId() + (binaryFrames ? " (binary frames)" : " (JSON frames)"));
+        // All users (new and existing) need to authenticate
+        // Registration happens in LoginDialog, so here we only authenticate
+        String ticket = resumeTicket;
+        resumeTicket = null;
+        if (RESUME_ENABLED && ticket != null && System.currentTimeMillis() < resumeTicketExpiry) {
+            sendAuthFrame("resume:" + ticket + ":" + authentication.getUser().getUsername());
+        } else {
+            sendAuthFrame("auth-request");
         }
     }
 
-    @OnMessage // Method to handle incoming messages
-    public void onMessage(String messageJson) {
-        try {
-            System.out.println("[CLIENT] Server says: " + messageJson);
+    private void sendAuthFrame(String frame) {
+        String command = frame.substring(0, frame.indexOf(':') < 0 ? frame.length() : frame.indexOf(':'));
+        outboundQueue.send(frame).whenComplete((ignored, error) -> {
+            if (error == null) {
+                System.out.println("[CLIENT] Sent " + command + " to server. " + userSession.getId());
+            } else {
+                System.err.println("[CLIENT] Error sending request: " + error.getMessage());
+            }
+        });
+    }
 
-            if (messageJson.startsWith("challenge:")) { // Check if the message is a challenge from the server
-                String challenge = messageJson.substring("challenge:".length()); // Extract the challenge from the message
+    // Called once from the constructor, every frame type has exactly one handler
+    private ProtocolDispatcher createDispatcher() {
+        return new ProtocolDispatcher()
+            .register("challenge", challenge -> { // Challenge from the server
                 authentication.setChallenge(challenge); // Set the challenge in the Authentication object
                 String response = authentication.buildAuthResponse();
-                userSession.getBasicRemote().sendText(response);
-            } else if (messageJson.equals("auth-success")) { // Check if the authentication was successful
+                outboundQueue.send(response);
+            })
+            .register("auth-success", epoch -> { // "auth-success:<epoch>" if the server numbers messages
                 System.out.println("[CLIENT] Authenticated successfully!" + "\n" + "[CLIENT] Session ID: " + userSession.getId() + "\n" + "[CLIENT] You can now send messages.");
-            } else if (messageJson.equals("auth-failure")) { // Check if the authentication failed
+                flushOutbox();
+                deliveryTracker.setEpoch(epoch);
+                deliveryTracker.positions().forEach(this::requestSync); // Catch up on what was sent while we were away
+                ConnectionSupervisor current = supervisor;
+                if (current != null) {
+                    current.onAuthenticated();
+                }
+                connectionStatus(true, "Verbunden");
+            })
+            .register("resume-ticket", ticket -> {
+                // "<seconds>:<ticket>", expire a little early so the ticket isn't presented just as it runs out
+                int colon = ticket.indexOf(':');
+                long seconds;
+                try {
+                    seconds = colon > 0 ? Long.parseLong(ticket.substring(0, colon)) : 0;
+                } catch (NumberFormatException e) {
+                    seconds = 0;
+                }
+                if (seconds <= 0 || colon == ticket.length() - 1) {
+                    System.err.println("[CLIENT] Ignoring malformed resumption ticket, next login uses the challenge");
+                    resumeTicket = null;
+                    resumeTicketExpiry = 0;
+                    return;
+                }
+                resumeTicketExpiry = System.currentTimeMillis() + Math.min(seconds, Long.MAX_VALUE / 1000) * 900;
+                resumeTicket = ticket.substring(colon + 1);
+            })
+            .register("resume-failure", ignored -> {
+                System.out.println("[CLIENT] Resumption ticket rejected, authenticating with challenge");
+                sendAuthFrame("auth-request");
+            })
+            .register("auth-failure", ignored -> {
                 System.out.println("[CLIENT] Auth failed!" + "\n" + "[CLIENT] Please check your credentials and try again.");
+                ConnectionSupervisor current = supervisor;
+                if (current != null) {
+                    current.onAuthenticationFailed();
+                }
+                connectionStatus(false, "Anmeldung fehlgeschlagen");
                 userSession.close(); // Close the session if authentication fails
-            } else if (messageJson.startsWith("chat-init-success:")) {
+            })
+            .register("chat-init-success", partner -> {
                 System.out.println("[CLIENT] Chat initialization successful");
-                String initData = messageJson.substring("chat-init-success:".length());
-                System.out.println("[CLIENT] Chat partner confirmed: " + initData);
-                
-                // Notify listener about successful chat initialization
+                System.out.println("[CLIENT] Chat partner confirmed: " + partner);
                 if (listener != null) {
-                    // Create a system message to notify the UI
-                    Message systemMessage = new Message("system", messageJson);
-                    listener.onNewMessage(systemMessage);
+                    listener.onChatInitSuccess(partner);
                 }
-
-            } else if (messageJson.startsWith("chat-init-failure:")) {
-                System.err.println("[CLIENT] Chat initialization failed: " + messageJson);
-                
-                // Notify listener about failed chat initialization  
-                if (listener != null) {
-                    // Create a system message to notify the UI
-                    Message systemMessage = new Message("system", messageJson);
-                    listener.onNewMessage(systemMessage);
-                }
-                return;
-
-            } else if (messageJson.startsWith("online-users:")) {
-                System.out.println("[CLIENT] Received online users list: " + messageJson);
-                
-                // Forward online users list to listener
+            })
+            .register("chat-init-failure", error -> {
+                System.err.println("[CLIENT] Chat initialization failed: " + error);
                 if (listener != null) {
-                    Message onlineUsersMessage = new Message("online-users", messageJson);
-                    listener.onNewMessage(onlineUsersMessage);
+                    listener.onChatInitFailure(error);
                 }
-                return;
-                
-            } else if (messageJson.startsWith("public-key:")) {
-                System.out.println("[CLIENT] Received public key response: " + messageJson);
-                
-                // Forward public key response to listener (non-JSON message)
+            })
+            .register("online-users", onlineUsers -> {
+                System.out.println("[CLIENT] Received online users list: " + onlineUsers);
                 if (listener != null) {
-                    // Create a special message to carry the public key data
-                    Message publicKeyMessage = new Message("public-key", messageJson);
-                    listener.onNewMessage(publicKeyMessage);
+                    listener.onOnlineUsers(onlineUsers);
                 }
+            })
+            .register("public-key", key -> onPublicKeyResponse("public-key:" + key))
+            .register("public-key-not-found", username -> onPublicKeyResponse("public-key-not-found:" + username))
+            .register("public-keys", keys -> onPublicKeyResponse("public-keys:" + keys)) // Bulk answer to "get-public-keys:"
+            .register("sync-batch", json -> {
+                List<Message> missed = MessageCodec.fromJsonArray(json);
+                System.out.println("[CLIENT] Received " + missed.size() + " missed messages");
+                missed.forEach(this::onChatMessage);
+            })
+            .setFallbackHandler(json -> onChatMessage(MessageCodec.fromJson(json)))
+            .setBinaryHandler(frame -> BinaryFrameCodec.decodeAll(frame).forEach(this::onChatMessage)); // Single message or sync batch
+    }
+
+    private void onPublicKeyResponse(String response) {
+        System.out.println("[CLIENT] Received public key response: " + response);
+        if (listener != null) {
+            listener.onPublicKeyResponse(response);
+        }
+    }
+
+    private PartialMessageReceiver onPartialMessageStart(Message header) {
+        MessageListener current = listener;
+        if (current == null || deliveryTracker.isDuplicate(header)) {
+            return null; // Collected and then dropped by onChatMessage
+        }
+        PartialMessageReceiver receiver = current.onPartialMessageStart(header);
+        if (receiver != null) {
+            deliveryTracker.accept(header); // Won't reach onChatMessage
+        }
+        return receiver;
+    }
+
+    // Asks the server for the messages of partner after seq, they come back as one sync batch
+    private void requestSync(String partner, long seq) {
+        sendMessage(new Message(authentication.getUser().getUsername(), "sync-since:" + partner + ":" + seq));
+    }
+
+    // Regular chat messages, from JSON or binary frames
+    private void onChatMessage(Message message) {
+        if (!deliveryTracker.accept(message)) {
+            System.out.println("[CLIENT] Dropped duplicate message from: " + message.getSender());
+            return;
+        }
+        System.out.println("[CLIENT] Message from: " + message.getSender());
+
+        // Save for later retrieval, readers use cursors or snapshots of the ring
+        messageRing.publish(message);
+
+        // Alert Listener about new message, in order per sender but in parallel to other chats
+        MessageListener current = listener;
+        if (current != null) {
+            inboundPipeline.submitForConversation(message.getSender(), () -> current.onNewMessage(message));
+        }
+    }
+
+    @OnMessage // Method to handle incoming messages, text messages may arrive in parts
+    public void onMessage(String part, boolean last) {
+        String messageJson;
+        if (textParts.length() == 0 && last) {
+            messageJson = part; // Usual case, nothing to join
+        } else {
+            textParts.append(part);
+            if (!last) {
                 return;
-                
-            } else { // Handle regular chat messages
-                System.out.println("[CLIENT] RAW JSON: " + messageJson);
-                Message message = jsonb.fromJson(messageJson, Message.class);
-                System.out.println("[CLIENT] Parsed: sender=" + message.getSender() + ", content=" + message.getContent());
+            }
+            messageJson = textParts.toString();
+            textParts.setLength(0);
+        }
+        if (!messageJson.startsWith("{")) {
+            System.out.println("[CLIENT] Server says: " + messageJson); // Chat messages are not logged raw
+        }
+        inboundPipeline.submit(messageJson); // Parsed and handled on the pipeline threads
+    }
 
-                // Save for later retrieval
-                this.lastMessage = message;
+    @OnMessage // Binary chat frames, only sent by servers that negotiated the binary subprotocol
+    public void onBinaryMessage(ByteBuffer part, boolean last) {
+        byte[] copy = new byte[part.remaining()]; // The container may reuse the buffer
+        part.get(copy);
+        inboundPipeline.submit(() -> {
+            try {
+                partialFrameReader.feed(copy, last);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
 
-                // Write to message buffer 
-                this.messageBuffer[this.bufferIndex] = message;
-                this.bufferIndex = (this.bufferIndex + 1) % this.messageBuffer.length;
+    /**
+     * The dispatcher of this endpoint, to register handlers for additional commands
+     */
+    public ProtocolDispatcher getDispatcher() {
+        return dispatcher;
+    }
 
-                // Alert Listener about new message
-                if (listener != null) {
-                    listener.onNewMessage(message);
+    /**
+     * Queues a message for sending, never blocks the calling thread (e.g. the EDT).
+     * While not authenticated the message waits in the outbox.
+     * @return Future that completes when the message was written, or fails if the outbox is full
+     *         or the connection is gone for good
+     */
+    public CompletableFuture<Void> sendMessage(Message message) {
+        if (message.getRecipient() != null && message.getId() == 0) {
+            message.setId(Message.newId()); // Lets the server and the recipient recognise it if it is sent twice
+        }
+        PendingMessage pending = new PendingMessage(message);
+        synchronized (outbox) {
+            if (authenticated) {
+                transmit(pending);
+            } else if (outbox.size() >= OUTBOX_CAPACITY) {
+                pending.future.completeExceptionally(new IllegalStateException("Outbox full (" + OUTBOX_CAPACITY + " messages)"));
+            } else {
+                outbox.add(pending);
+                System.out.println("[CLIENT] Not connected, message queued (" + outbox.size() + " waiting)");
+            }
+        }
+        return pending.future.whenComplete((ignored, error) -> {
+            if (error == null) {
+                System.out.println("[CLIENT] Sent message: " + message.getContent() + " from " + message.getSender()); // Log the sent message
+            } else {
+                System.err.println("[CLIENT] Cannot send message: " + error.getMessage());
+            }
+        });
+    }
+
+    // Hands the message to the outbound queue, called with the outbox lock held so the order is kept
+    private void transmit(PendingMessage pending) {
+        CompletableFuture<Void> sent = binaryFrames
+            ? outboundQueue.send(BinaryFrameCodec.encode(pending.message))
+            : outboundQueue.send(MessageCodec.toJson(pending.message)); // Convert the Message object to JSON
+        sent.whenComplete((ignored, error) -> {
+            if (error == null) {
+                pending.future.complete(null);
+                return;
+            }
+            synchronized (outbox) {
+                if (!authenticated && supervisor != null && outbox.size() < OUTBOX_CAPACITY) {
+                    outbox.add(pending); // The connection dropped under our feet, try again after reconnecting
+                    return;
                 }
             }
-            
+            pending.future.completeExceptionally(error);
+        });
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Sends everything that piled up while we were not authenticated
+    private void flushOutbox() {
+        synchronized (outbox) {
+            authenticated = true;
+            if (!outbox.isEmpty()) {
+                System.out.println("[CLIENT] Sending " + outbox.size() + " queued messages");
+            }
+            PendingMessage pending;
+            while ((pending = outbox.poll()) != null) {
+                transmit(pending);
+            }
         }
     }
 
-    public void sendMessage(Message message) {
-        try {
-            if (userSession != null && userSession.isOpen()) {
-                String messagejson = jsonb.toJson(message); // Convert the Message object to JSON
-                userSession.getBasicRemote().sendText(messagejson); // Send the JSON message over the WebSocket
-                System.out.println("[CLIENT] Sent message: " + message.getContent() + " from " + message.getSender()); // Log the sent message
-        }   else { // Check if the session is open before sending
-                System.err.println("[CLIENT] WebSocket session is not open. Cannot send message.");
-                throw new IllegalStateException("WebSocket session is not open");
-            }
-        } catch (Exception e) { // Handle any exceptions that occur during message sending
-            e.printStackTrace();
+    // Number of messages waiting for the connection
+    public int getOutboxSize() {
+        synchronized (outbox) {
+            return outbox.size();
+        }
+    }
+
+    void setSupervisor(ConnectionSupervisor supervisor) {
+        this.supervisor = supervisor;
+    }
+
+    public boolean isConnected() {
+        Session current = userSession;
+        return current != null && current.isOpen();
+    }
+
+    void connectionStatus(boolean connected, String status) {
+        MessageListener current = listener;
+        if (current != null) {
+            current.onConnectionStatus(connected, status);
         }
     }
 
+    // Number of frames waiting for the socket
+    public int getOutboundQueueDepth() {
+        return outboundQueue.getDepth();
+    }
+
     @OnClose // Method to handle closing a WebSocket connection
     public void onClose(Session userSession) {
         this.userSession = null; // Clear the session
+        synchronized (outbox) {
+            authenticated = false; // Messages wait in the outbox from now on
+        }
+        outboundQueue.attach(null);
+        textParts.setLength(0);
+        inboundPipeline.submit(partialFrameReader::abort);
+        printCompressionStats();
         System.out.println("[CLIENT] Connection closed: " + userSession.getId() + "\n" + "[CLIENT] Session has been successfully Terminated.");
+        ConnectionSupervisor current = supervisor;
+        if (current != null) {
+            current.onConnectionLost();
+        } else {
+            connectionStatus(false, "Verbindung getrennt");
+        }
     }
     
     @OnError // Method to handle errors in WebSocket communication
@@ -185,14 +443,25 @@ public class ChatClientEndpoint {
     }
 
     public Message getLastMessage() {
-        return lastMessage;
+        return messageRing.latest();
     }
-    
-    public Message[] getMessageBuffer() {
-        return messageBuffer;
+
+    /**
+     * Received messages, any thread may read them through snapshot() or its own cursor
+     */
+    public MessageRingBuffer getMessageRing() {
+        return messageRing;
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public void printCompressionStats() {
+        System.out.println("[CLIENT] Compression: " + compressionStats);
     }
 
-    public int getBufferIndex() {
-        return bufferIndex;
+    public boolean isBinaryFrames() {
+        return binaryFrames;
     }
 }
@@ -0,0 +1,66 @@
+package WebSocketHandling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Byte counters of one WebSocket connection with permessage-deflate:
+ * payload size before compression (raw) and on the wire (compressed), per direction.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class CompressionStats {
+    private final AtomicLong rawSent = new AtomicLong();
+    private final AtomicLong compressedSent = new AtomicLong();
+    private final AtomicLong rawReceived = new AtomicLong();
+    private final AtomicLong compressedReceived = new AtomicLong();
+    private volatile boolean negotiated;
+
+    void recordSent(long raw, long compressed) {
+        rawSent.addAndGet(raw);
+        compressedSent.addAndGet(compressed);
+    }
+
+    void recordReceived(long raw, long compressed) {
+        rawReceived.addAndGet(raw);
+        compressedReceived.addAndGet(compressed);
+    }
+
+    void setNegotiated(boolean negotiated) {
+        this.negotiated = negotiated;
+    }
+
+    // Whether the server accepted permessage-deflate for the current connection
+    public boolean isNegotiated() {
+        return negotiated;
+    }
+
+    public long getRawSent() {
+        return rawSent.get();
+    }
+
+    public long getCompressedSent() {
+        return compressedSent.get();
+    }
+
+    public long getRawReceived() {
+        return rawReceived.get();
+    }
+
+    public long getCompressedReceived() {
+        return compressedReceived.get();
+    }
+
+    // Share of bytes that compression saved in both directions, 0 if nothing was sent yet
+    public double getSavings() {
+        long raw = rawSent.get() + rawReceived.get();
+        return raw == 0 ? 0 : 1.0 - (double) (compressedSent.get() + compressedReceived.get()) / raw;
+    }
+
+    @Override
+    public String toString() {
+        if (!negotiated) {
+            return "permessage-deflate not negotiated";
+        }
+        return String.format("sent %d -> %d bytes, received %d -> %d bytes, saved %.1f%%",
+                getRawSent(), getCompressedSent(), getRawReceived(), getCompressedReceived(), getSavings() * 100);
+    }
+}
@@ -0,0 +1,143 @@
+package WebSocketHandling;
+
+import utils.TaskExecutors;
+
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.WebSocketContainer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Keeps the connection of a ChatClientEndpoint alive.
+ * When the socket drops (e.g. while the backend restarts) the supervisor connects again after
+ * an exponential backoff with jitter, so a restarted server isn't hit by all clients at once.
+ * The endpoint keeps its outbox during the outage and sends it after the next auth-success,
+ * the UI and the keys stay as they are.
+ * Delays: -Dmchat.reconnect.initialDelay (ms, default 500) doubling up to -Dmchat.reconnect.maxDelay
+ * (ms, default 30000). Every delay is picked at random between half and all of its value.
+ * The backoff only starts over once a connection stayed authenticated for -Dmchat.reconnect.stableAfter
+ * (ms, default 10000), a server that accepts and drops the connection right away is retried less and less often.
+ * A failed authentication or close() ends the supervision.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class ConnectionSupervisor {
+    private static final long INITIAL_DELAY_MS = Long.getLong("mchat.reconnect.initialDelay", 500);
+    private static final long MAX_DELAY_MS = Long.getLong("mchat.reconnect.maxDelay", 30_000);
+    private static final long STABLE_AFTER_MS = Long.getLong("mchat.reconnect.stableAfter", 10_000);
+
+    private final ChatClientEndpoint client;
+    private final WebSocketContainer container;
+    private final URI uri;
+    private volatile boolean running;
+    private boolean reconnecting; // Guarded by this, only one reconnect loop at a time
+    private int attempt; // Guarded by this, attempts since the last stable connection
+    private long authenticatedAt; // Guarded by this, 0 while the current connection is not authenticated
+
+    public ConnectionSupervisor(ChatClientEndpoint client, WebSocketContainer container, URI uri) {
+        this.client = client;
+        this.container = container;
+        this.uri = uri;
+    }
+
+    /**
+     * First connection, errors are thrown so the caller can tell the user.
+     * Once this succeeded, lost connections are restored automatically.
+     */
+    public void connect() throws DeploymentException, IOException {
+        client.setSupervisor(this);
+        client.connect(container, uri);
+        running = true;
+    }
+
+    /**
+     * Stops reconnecting, e.g. when the user closes the client
+     */
+    public void close() {
+        running = false;
+        client.setSupervisor(null);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Called by the endpoint when its session was closed
+    void onConnectionLost() {
+        if (!running) {
+            return;
+        }
+        synchronized (this) {
+            if (reconnecting) {
+                return;
+            }
+            reconnecting = true;
+            if (authenticatedAt != 0 && System.currentTimeMillis() - authenticatedAt >= STABLE_AFTER_MS) {
+                attempt = 0; // The connection was fine for a while, start with short delays again
+            }
+            authenticatedAt = 0;
+        }
+        scheduleReconnect();
+    }
+
+    // Called by the endpoint on auth-success
+    synchronized void onAuthenticated() {
+        authenticatedAt = System.currentTimeMillis();
+    }
+
+    // Called by the endpoint on auth-failure, the same credentials won't work on the next attempt either
+    void onAuthenticationFailed() {
+        System.err.println("[CLIENT] Authentication failed, not reconnecting.");
+        running = false;
+    }
+
+    private void scheduleReconnect() {
+        long delay;
+        int current;
+        synchronized (this) {
+            current = ++attempt;
+            delay = nextDelay(current - 1);
+        }
+        System.out.println("[CLIENT] Reconnect attempt " + current + " in " + delay + " ms");
+        client.connectionStatus(false, "Verbindung unterbrochen, neuer Versuch in " + Math.max(1, delay / 1000) + " s"
+                + pendingText());
+        CompletableFuture.runAsync(this::reconnect, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, TaskExecutors.io()));
+    }
+
+    private void reconnect() {
+        if (!running) {
+            synchronized (this) {
+                reconnecting = false;
+            }
+            return;
+        }
+        client.connectionStatus(false, "Verbinde..." + pendingText());
+        try {
+            client.connect(container, uri);
+            synchronized (this) {
+                reconnecting = false;
+            }
+            System.out.println("[CLIENT] Reconnected to " + uri);
+            if (!client.isConnected()) {
+                onConnectionLost(); // Dropped again before we were done
+            }
+        } catch (DeploymentException | IOException | RuntimeException e) {
+            System.err.println("[CLIENT] Reconnect failed: " + e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private String pendingText() {
+        int pending = client.getOutboxSize();
+        return pending == 0 ? "" : " (" + pending + (pending == 1 ? " Nachricht wartet)" : " Nachrichten warten)");
+    }
+
+    // Exponential backoff with "equal jitter": between half and all of the capped delay
+    static long nextDelay(int attempt) {
+        long capped = Math.min(MAX_DELAY_MS, INITIAL_DELAY_MS << Math.min(attempt, 20));
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+}
@@ -0,0 +1,63 @@
+package WebSocketHandling;
+
+import jakarta.websocket.Extension;
+import org.glassfish.tyrus.core.extension.ExtendedExtension;
+import org.glassfish.tyrus.core.frame.Frame;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
+
+import java.util.List;
+
+/*
+ * Tyrus permessage-deflate extension that counts the payload bytes before and after compression.
+ * Compression itself is done by Tyrus' PerMessageDeflateExtension, one instance per connection.
+ * @author Max Staneker, Mia Schienagel
+ */
+class CountingDeflateExtension implements ExtendedExtension {
+    private final PerMessageDeflateExtension deflate = new PerMessageDeflateExtension();
+    private final CompressionStats stats;
+
+    CountingDeflateExtension(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public Frame processIncoming(ExtensionContext context, Frame frame) {
+        long compressed = frame.getPayloadLength();
+        Frame inflated = deflate.processIncoming(context, frame);
+        stats.recordReceived(inflated.getPayloadLength(), compressed);
+        return inflated;
+    }
+
+    @Override
+    public Frame processOutgoing(ExtensionContext context, Frame frame) {
+        long raw = frame.getPayloadLength();
+        Frame deflated = deflate.processOutgoing(context, frame);
+        stats.recordSent(raw, deflated.getPayloadLength());
+        return deflated;
+    }
+
+    @Override
+    public List<Extension.Parameter> onExtensionNegotiation(ExtensionContext context, List<Extension.Parameter> requestedParameters) {
+        return deflate.onExtensionNegotiation(context, requestedParameters);
+    }
+
+    @Override
+    public void onHandshakeResponse(ExtensionContext context, List<Extension.Parameter> responseParameters) {
+        deflate.onHandshakeResponse(context, responseParameters);
+    }
+
+    @Override
+    public void destroy(ExtensionContext context) {
+        deflate.destroy(context);
+    }
+
+    @Override
+    public String getName() {
+        return deflate.getName();
+    }
+
+    @Override
+    public List<Extension.Parameter> getParameters() {
+        return deflate.getParameters();
+    }
+}
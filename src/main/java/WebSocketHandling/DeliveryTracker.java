@@ -0,0 +1,121 @@
+package WebSocketHandling;
+
+import model.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.ObjLongConsumer;
+
+/*
+ * Tracks what the client received, per conversation (= sender of the incoming messages).
+ * The server numbers the messages of every sender to recipient direction from 1 (Message.seq).
+ * For each partner we keep the highest number up to which nothing is missing. A message that
+ * skips numbers means something was lost, the missing ones are requested with
+ * "sync-since:<partner>:<seq>" and come back in one batch. Messages that were received twice
+ * (same id) are dropped, the number only decides for messages without id.
+ * The first message of a partner only sets the starting point, history from before is not fetched.
+ * A restarted server numbers from 1 again, it tells so with a new epoch in "auth-success:<epoch>"
+ * and all positions are forgotten.
+ * @author Max Staneker, Mia Schienagel
+ */
+class DeliveryTracker {
+    private static final int SEEN_IDS = Integer.getInteger("mchat.delivery.seenIds", 4096);
+    private static final int MAX_AHEAD = 1024; // Numbers kept above a gap per conversation
+
+    private static class Conversation {
+        long contiguous;      // Everything up to here was received
+        long requestedUpTo;   // Highest number that caused a sync request
+        final TreeSet<Long> ahead = new TreeSet<>(); // Received above the gap
+    }
+
+    private final SeenIdFilter seenIds = new SeenIdFilter(SEEN_IDS);
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private final ObjLongConsumer<String> syncRequester;
+    private String epoch = ""; // Of the server the positions belong to, empty if it didn't send one
+
+    /**
+     * @param syncRequester Called with partner and last contiguous number when a gap was found
+     */
+    DeliveryTracker(ObjLongConsumer<String> syncRequester) {
+        this.syncRequester = syncRequester;
+    }
+
+    /**
+     * Records the message
+     * @return false if it was received before and must be dropped
+     */
+    synchronized boolean accept(Message message) {
+        if (isDuplicate(message)) {
+            return false;
+        }
+        seenIds.add(message.getId());
+        if (message.getSeq() > 0 && message.getSender() != null) {
+            recordSeq(message.getSender(), message.getSeq());
+        }
+        return true;
+    }
+
+    synchronized boolean isDuplicate(Message message) {
+        if (message.getId() != 0) {
+            return seenIds.contains(message.getId());
+        }
+        Conversation conversation = message.getSender() != null ? conversations.get(message.getSender()) : null;
+        long seq = message.getSeq();
+        return conversation != null && seq > 0
+                && (seq <= conversation.contiguous || conversation.ahead.contains(seq));
+    }
+
+    private void recordSeq(String partner, long seq) {
+        Conversation conversation = conversations.get(partner);
+        if (conversation == null) {
+            conversation = new Conversation();
+            conversation.contiguous = seq; // Starting point
+            conversations.put(partner, conversation);
+            return;
+        }
+        if (seq <= conversation.contiguous) {
+            return;
+        }
+        if (seq == conversation.contiguous + 1) {
+            conversation.contiguous = seq;
+            while (!conversation.ahead.isEmpty() && conversation.ahead.first() == conversation.contiguous + 1) {
+                conversation.contiguous = conversation.ahead.pollFirst();
+            }
+            return;
+        }
+        conversation.ahead.add(seq);
+        if (conversation.ahead.size() > MAX_AHEAD) {
+            // Too far behind, give up on the oldest gap
+            conversation.contiguous = conversation.ahead.pollFirst();
+        }
+        if (seq > conversation.requestedUpTo) {
+            conversation.requestedUpTo = seq;
+            System.out.println("[CLIENT] Missing messages from " + partner + " after #" + conversation.contiguous + ", requesting sync");
+            syncRequester.accept(partner, conversation.contiguous);
+        }
+    }
+
+    /**
+     * Epoch from auth-success, a different one than before means the numbers start over
+     */
+    synchronized void setEpoch(String epoch) {
+        if (epoch.isEmpty()) {
+            return;
+        }
+        if (!this.epoch.isEmpty() && !this.epoch.equals(epoch)) {
+            System.out.println("[CLIENT] Server was restarted, message numbers start over");
+            conversations.clear();
+        }
+        this.epoch = epoch;
+    }
+
+    /**
+     * Last contiguous number per partner, to catch up after a reconnect
+     */
+    synchronized Map<String, Long> positions() {
+        Map<String, Long> positions = new HashMap<>();
+        conversations.forEach((partner, conversation) -> positions.put(partner, conversation.contiguous));
+        return positions;
+    }
+}
@@ -0,0 +1,85 @@
+package WebSocketHandling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Staged processing of incoming frames, so the WebSocket read thread only has to enqueue.
+ * Stage 1 (one thread) parses frames in arrival order and handles control frames.
+ * Stage 2 runs chat messages on one of several single-threaded workers, chosen by the
+ * conversation, where decryption happens. Messages of one conversation are always on the
+ * same worker and stay in order, different conversations run in parallel.
+ * Only display-ready results should be handed to the EDT.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class InboundPipeline {
+    private static final int WORKERS = Integer.getInteger("mchat.inbound.workers",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final ProtocolDispatcher dispatcher;
+    private final ExecutorService parseStage;
+    private final ExecutorService[] conversationStages;
+
+    public InboundPipeline(ProtocolDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.parseStage = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "inbound-parse"));
+        this.conversationStages = new ExecutorService[WORKERS];
+        for (int i = 0; i < WORKERS; i++) {
+            String name = "inbound-conversation-" + i;
+            conversationStages[i] = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, name));
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Stage 1: called from the read thread, returns immediately
+     */
+    public void submit(String frame) {
+        parseStage.execute(() -> {
+            try {
+                dispatcher.dispatch(frame);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Stage 1 for anything else that has to stay in order with the frames, e.g. parts of a message
+     */
+    public void submit(Runnable task) {
+        parseStage.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Stage 2: runs the task on the worker of the conversation (e.g. the sender name)
+     */
+    public void submitForConversation(String conversation, Runnable task) {
+        int stage = Math.floorMod(conversation.hashCode(), conversationStages.length);
+        conversationStages[stage].execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public void shutdown() {
+        parseStage.shutdownNow();
+        for (ExecutorService stage : conversationStages) {
+            stage.shutdownNow();
+        }
+    }
+}
@@ -2,7 +2,48 @@ package WebSocketHandling;
 
 import model.Message; // Importing the Message model class for handling chat messages
 
+/*
+ * Receives chat messages and server notifications from the ChatClientEndpoint.
+ * The typed notifications default to the old behaviour of wrapping the frame into a
+ * Message with a special sender ("system", "online-users", "public-key"),
+ * so listeners that only implement onNewMessage keep working.
+ */
 public interface MessageListener {
     void onNewMessage(Message message);
-}
 
+    // Argument of "online-users:", the JSON list of users
+    default void onOnlineUsers(String onlineUsers) {
+        onNewMessage(new Message("online-users", "online-users:" + onlineUsers));
+    }
+
+    // Complete "public-key:...", "public-keys:..." or "public-key-not-found:..." frame
+    default void onPublicKeyResponse(String response) {
+        onNewMessage(new Message("public-key", response));
+    }
+
+    default void onChatInitSuccess(String partner) {
+        onNewMessage(new Message("system", "chat-init-success:" + partner));
+    }
+
+    default void onChatInitFailure(String error) {
+        onNewMessage(new Message("system", "chat-init-failure:" + error));
+    }
+
+    /**
+     * Connection state for the UI, e.g. while a ConnectionSupervisor reconnects.
+     * @param connected True once authenticated
+     * @param status Text for the user
+     */
+    default void onConnectionStatus(boolean connected, String status) {
+    }
+
+    /**
+     * Called for large binary messages in the "RSAB:" block format before their content has arrived.
+     * Return a receiver to decrypt and show the content progressively, or null (the default)
+     * to get the complete message through onNewMessage.
+     * @param header The message without content
+     */
+    default PartialMessageReceiver onPartialMessageStart(Message header) {
+        return null;
+    }
+}
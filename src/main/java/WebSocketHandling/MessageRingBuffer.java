@@ -0,0 +1,178 @@
+package WebSocketHandling;
+
+import model.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/*
+ * Keeps the last received messages for any number of readers, without locks.
+ * Exactly one thread may publish (in ChatClientEndpoint the parse stage of the InboundPipeline).
+ * Every message gets the next sequence number (from 1), the slot is written before the number
+ * is published, so a reader that sees the number also sees the message.
+ * Readers either take a snapshot or create their own Cursor and poll at their own pace
+ * (UI, history, metrics...). A reader that falls more than the capacity behind loses the oldest
+ * messages, the cursor counts them instead of blocking the writer.
+ * Capacity from -Dmchat.messagebuffer.capacity (default 256), rounded up to a power of two.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class MessageRingBuffer {
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("mchat.messagebuffer.capacity", 256);
+
+    // The sequence number travels with the message so readers can tell if a slot was overwritten
+    private static final class Entry {
+        final long sequence;
+        final Message message;
+
+        Entry(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong(); // Sequence of the newest message, 0 = none yet
+
+    public MessageRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a message, only ever called from the one writer thread
+     * @return The sequence number of the message
+     */
+    public long publish(Message message) {
+        long sequence = published.get() + 1;
+        slots.set((int) sequence & mask, new Entry(sequence, message));
+        published.set(sequence);
+        return sequence;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // Sequence number of the newest message, 0 if there is none
+    public long getPublishedSequence() {
+        return published.get();
+    }
+
+    // Newest message or null
+    public Message latest() {
+        long sequence = published.get();
+        Entry entry = sequence == 0 ? null : slots.get((int) sequence & mask);
+        return entry != null && entry.sequence >= sequence ? entry.message : null;
+    }
+
+    /**
+     * Consistent copy of the buffered messages, oldest first and without gaps.
+     * Messages overwritten while copying are left out at the old end.
+     */
+    public List<Message> snapshot() {
+        long newest = published.get();
+        long oldest = Math.max(1, newest - mask);
+        ArrayDeque<Message> messages = new ArrayDeque<>((int) (newest - oldest + 1));
+        for (long sequence = oldest; sequence <= newest; sequence++) {
+            Entry entry = slots.get((int) sequence & mask);
+            if (entry == null || entry.sequence != sequence) {
+                messages.clear(); // The writer passed us, everything before this point is gone
+                continue;
+            }
+            messages.addLast(entry.message);
+        }
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Cursor that starts after the newest message, it only sees what is published from now on
+     */
+    public Cursor newCursor() {
+        return new Cursor(published.get() + 1);
+    }
+
+    /**
+     * Cursor that starts at the oldest buffered message
+     */
+    public Cursor newCursorFromOldest() {
+        return new Cursor(Math.max(1, published.get() - mask));
+    }
+
+    /*
+     * Read position of one consumer. Cursors are independent of each other and of the writer,
+     * but a single cursor must only be used by one thread at a time.
+     */
+    public final class Cursor {
+        private long next; // Sequence of the next message to read
+        private long missed;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * @return The next message, or null if the cursor is at the newest one
+         */
+        public Message poll() {
+            while (next <= published.get()) {
+                Entry entry = slots.get((int) next & mask);
+                if (entry != null && entry.sequence == next) {
+                    next++;
+                    return entry.message;
+                }
+                skipToOldest(); // Overwritten, we were too slow
+            }
+            return null;
+        }
+
+        /**
+         * Hands all messages that are available now to the consumer
+         * @return Number of messages handed over
+         */
+        public int drain(Consumer<Message> consumer) {
+            int count = 0;
+            Message message;
+            while ((message = poll()) != null) {
+                consumer.accept(message);
+                count++;
+            }
+            return count;
+        }
+
+        private void skipToOldest() {
+            long oldest = Math.max(next + 1, published.get() - mask);
+            missed += oldest - next;
+            next = oldest;
+        }
+
+        // Messages published but not read yet, may be more than the buffer still holds
+        public long getLag() {
+            return Math.max(0, published.get() - next + 1);
+        }
+
+        // Messages that were overwritten before this cursor read them
+        public long getMissed() {
+            return missed;
+        }
+
+        public long getSequence() {
+            return next;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package WebSocketHandling;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Outbound pipeline of a WebSocket connection.
+ * Callers only put frames into a bounded queue and get a future back, one writer thread
+ * sends them with getAsyncRemote(). When several frames are waiting (the socket is busy)
+ * they are written as one batch and flushed together instead of one write per frame.
+ * A full queue or a closed session fails the future, the caller never blocks.
+ * A batch that isn't written within -Dmchat.outbound.sendTimeout (ms, default 10000) fails,
+ * so a stalled socket can't hold up the writer and everything queued behind it forever.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class OutboundQueue {
+    private static final int CAPACITY = Integer.getInteger("mchat.outbound.capacity", 1024);
+    private static final int MAX_BATCH = 64;
+    private static final long SEND_TIMEOUT_MS = Long.getLong("mchat.outbound.sendTimeout", 10_000);
+
+    private static class Pending {
+        final String text;
+        final ByteBuffer binary; // Set instead of text for binary frames
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(String text, ByteBuffer binary) {
+            this.text = text;
+            this.binary = binary;
+        }
+    }
+
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread writer;
+    private volatile Session session;
+    private volatile boolean running = true;
+
+    public OutboundQueue() {
+        writer = new Thread(this::drain, "outbound-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Session the frames are sent on, null while disconnected
+    public void attach(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Queues a text frame for sending
+     * @return Future that completes when the frame was written to the socket
+     */
+    public CompletableFuture<Void> send(String text) {
+        return enqueue(new Pending(text, null));
+    }
+
+    /**
+     * Queues a binary frame for sending, the buffer must not be changed afterwards
+     */
+    public CompletableFuture<Void> send(ByteBuffer binary) {
+        return enqueue(new Pending(null, binary));
+    }
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (!running) {
+            pending.future.completeExceptionally(new IllegalStateException("Outbound queue is shut down"));
+        } else if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("Outbound queue full (" + CAPACITY + " frames)"));
+        }
+        return pending.future;
+    }
+
+    // Number of frames waiting to be sent
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        fail(remaining, new IllegalStateException("Outbound queue is shut down"));
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1); // Everything that piled up while the last write was running
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            fail(batch, new IllegalStateException("Outbound queue is shut down"));
+        }
+    }
+
+    private void write(List<Pending> batch) throws InterruptedException {
+        Session current = session;
+        if (current == null || !current.isOpen()) {
+            fail(batch, new IllegalStateException("WebSocket session is not open"));
+            return;
+        }
+        RemoteEndpoint.Async remote = current.getAsyncRemote();
+        boolean batching = batch.size() > 1;
+        List<Future<Void>> sent = new ArrayList<>(batch.size());
+        try {
+            if (batching) {
+                remote.setBatchingAllowed(true);
+            }
+            for (Pending pending : batch) {
+                sent.add(pending.binary != null ? remote.sendBinary(pending.binary) : remote.sendText(pending.text));
+            }
+            if (batching) {
+                remote.flushBatch();
+                remote.setBatchingAllowed(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[CLIENT] Error sending batch: " + e.getMessage());
+        }
+
+        // Wait for the socket before taking the next batch, this keeps the queue the only buffer
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SEND_TIMEOUT_MS);
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<Void> future = batch.get(i).future;
+            if (i >= sent.size()) {
+                future.completeExceptionally(new IOException("Frame was not sent"));
+                continue;
+            }
+            try {
+                sent.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                future.complete(null);
+            } catch (ExecutionException e) {
+                future.completeExceptionally(e.getCause());
+            } catch (TimeoutException e) {
+                sent.get(i).cancel(true);
+                future.completeExceptionally(new IOException("Frame not sent within " + SEND_TIMEOUT_MS + " ms"));
+            }
+        }
+    }
+
+    private static void fail(List<Pending> batch, Exception reason) {
+        for (Pending pending : batch) {
+            pending.future.completeExceptionally(reason);
+        }
+    }
+}
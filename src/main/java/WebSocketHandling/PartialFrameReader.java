@@ -0,0 +1,151 @@
+package WebSocketHandling;
+
+import model.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/*
+ * Reassembles binary messages that arrive in parts (@OnMessage with the last flag).
+ * As soon as the header is complete a large message with block content can be streamed:
+ * its content goes piece by piece to a PartialMessageReceiver on the worker of the
+ * conversation, so only the current part is held in memory.
+ * All other messages are collected and handed to the dispatcher as a whole, like before.
+ * Not thread safe, only used from the parse stage of the InboundPipeline.
+ * @author Max Staneker, Mia Schienagel
+ */
+class PartialFrameReader {
+    private static final int STREAM_THRESHOLD = Integer.getInteger("mchat.inbound.streamThreshold", 64 * 1024);
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+    private static final boolean DEBUG = Boolean.getBoolean("mchat.debug.frames");
+
+    private final InboundPipeline pipeline;
+    private final Function<Message, PartialMessageReceiver> receiverFactory;
+    private final ProtocolDispatcher.BinaryFrameHandler completeHandler;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private BinaryFrameCodec.Header header; // Of the message currently streamed
+    private boolean collectOnly; // Current frame has no message header
+    private StreamState stream;
+
+    // Per streamed message, only touched on its conversation worker
+    private static class StreamState {
+        final PartialMessageReceiver receiver;
+        boolean failed;
+
+        StreamState(PartialMessageReceiver receiver) {
+            this.receiver = receiver;
+        }
+    }
+
+    PartialFrameReader(InboundPipeline pipeline, Function<Message, PartialMessageReceiver> receiverFactory, ProtocolDispatcher.BinaryFrameHandler completeHandler) {
+        this.pipeline = pipeline;
+        this.receiverFactory = receiverFactory;
+        this.completeHandler = completeHandler;
+    }
+
+    void feed(byte[] part, boolean last) throws Exception {
+        if (stream != null) {
+            forward(part, last);
+            return;
+        }
+        if (buffer.size() == 0 && last) {
+            completeHandler.handle(ByteBuffer.wrap(part)); // Came in one piece
+            return;
+        }
+        buffer.write(part, 0, part.length);
+        if (header == null && !collectOnly && buffer.size() <= MAX_HEADER_LENGTH) {
+            tryStartStream();
+            if (stream != null) {
+                return;
+            }
+        }
+        if (last) {
+            byte[] message = buffer.toByteArray();
+            reset();
+            completeHandler.handle(ByteBuffer.wrap(message));
+        }
+    }
+
+    private void tryStartStream() {
+        ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+        if (!BinaryFrameCodec.isMessageFrame(data.get(0))) {
+            collectOnly = true; // e.g. a batch, collected as a whole
+            return;
+        }
+        BinaryFrameCodec.Header candidate;
+        try {
+            candidate = BinaryFrameCodec.decodeHeader(data);
+        } catch (BufferUnderflowException e) {
+            return; // Wait for more
+        }
+        header = candidate;
+        if (!candidate.hasBlockContent() || candidate.contentLength < STREAM_THRESHOLD) {
+            return; // Collect the rest as usual
+        }
+        PartialMessageReceiver receiver = receiverFactory.apply(candidate.toMessage());
+        if (receiver == null) {
+            return;
+        }
+        stream = new StreamState(receiver);
+        if (DEBUG) {
+            System.out.println("[CLIENT DEBUG] Streaming large message from: " + candidate.sender);
+        }
+        byte[] content = new byte[data.remaining()];
+        data.get(content);
+        buffer.reset();
+        forward(content, false);
+    }
+
+    private void forward(byte[] content, boolean last) {
+        StreamState state = stream;
+        pipeline.submitForConversation(header.sender, () -> {
+            if (state.failed) {
+                return;
+            }
+            try {
+                if (content.length > 0) {
+                    state.receiver.onContent(content);
+                }
+                if (last) {
+                    state.receiver.onComplete();
+                }
+            } catch (RuntimeException e) {
+                state.failed = true;
+                state.receiver.onFailure(e);
+            }
+        });
+        if (last) {
+            reset();
+        }
+    }
+
+    /**
+     * The connection closed in the middle of a message
+     */
+    void abort() {
+        if (stream != null) {
+            StreamState state = stream;
+            pipeline.submitForConversation(header.sender, () -> {
+                if (!state.failed) {
+                    state.failed = true;
+                    state.receiver.onFailure(new IllegalStateException("Connection closed during message"));
+                }
+            });
+        }
+        reset();
+    }
+
+    private void reset() {
+        if (buffer.size() > MAX_HEADER_LENGTH) {
+            buffer = new ByteArrayOutputStream(); // Don't keep the memory of a big message
+        } else {
+            buffer.reset();
+        }
+        header = null;
+        collectOnly = false;
+        stream = null;
+    }
+}
@@ -0,0 +1,17 @@
+package WebSocketHandling;
+
+/*
+ * Receives the content of a large message while it is still arriving, see
+ * MessageListener.onPartialMessageStart. All calls for one message happen in order
+ * on the inbound worker of its conversation.
+ * @author Max Staneker, Mia Schienagel
+ */
+public interface PartialMessageReceiver {
+    // Next piece of the raw content (for block content: the bytes after "RSAB:", not Base64)
+    void onContent(byte[] data);
+
+    void onComplete();
+
+    // The message broke off or a piece could not be processed, no more calls follow
+    void onFailure(Exception reason);
+}
@@ -0,0 +1,79 @@
+package WebSocketHandling;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Routes incoming text frames to their handlers in one step.
+ * Control frames have the form "command" or "command:argument", the command is cut off at the
+ * first colon and looked up in a map. Chat messages are JSON and recognised by their first
+ * character, so the most common frame never goes through the command lookup at all.
+ * Frames without a registered command are handed to the fallback handler (JSON parsing).
+ * Binary frames always go to the binary handler.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class ProtocolDispatcher {
+
+    @FunctionalInterface
+    public interface CommandHandler {
+        void handle(String argument) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface FrameHandler {
+        void handle(String frame) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface BinaryFrameHandler {
+        void handle(ByteBuffer frame) throws Exception;
+    }
+
+    private final Map<String, CommandHandler> handlers = new HashMap<>();
+    private FrameHandler fallbackHandler = frame -> System.err.println("[CLIENT] Unhandled frame: " + frame);
+    private BinaryFrameHandler binaryHandler = frame -> System.err.println("[CLIENT] Unhandled binary frame: " + frame.remaining() + " bytes");
+
+    /**
+     * Registers (or replaces) the handler for a command, e.g. "public-key" for "public-key:..."
+     */
+    public ProtocolDispatcher register(String command, CommandHandler handler) {
+        handlers.put(command, handler);
+        return this;
+    }
+
+    /**
+     * Handler for JSON chat messages and everything that is not a known command
+     */
+    public ProtocolDispatcher setFallbackHandler(FrameHandler handler) {
+        this.fallbackHandler = handler;
+        return this;
+    }
+
+    /**
+     * Handler for binary frames (see BinaryFrameCodec), these carry no command
+     */
+    public ProtocolDispatcher setBinaryHandler(BinaryFrameHandler handler) {
+        this.binaryHandler = handler;
+        return this;
+    }
+
+    public void dispatch(ByteBuffer frame) throws Exception {
+        binaryHandler.handle(frame);
+    }
+
+    public void dispatch(String frame) throws Exception {
+        if (!frame.isEmpty() && frame.charAt(0) == '{') {
+            fallbackHandler.handle(frame); // Chat message, no command lookup needed
+            return;
+        }
+        int colon = frame.indexOf(':');
+        String command = colon < 0 ? frame : frame.substring(0, colon);
+        CommandHandler handler = handlers.get(command);
+        if (handler == null) {
+            fallbackHandler.handle(frame);
+            return;
+        }
+        handler.handle(colon < 0 ? "" : frame.substring(colon + 1));
+    }
+}
@@ -0,0 +1,77 @@
+package WebSocketHandling;
+
+import java.util.Arrays;
+
+/*
+ * Remembers the ids of recently seen messages to drop duplicates (a message sent again after
+ * a reconnect, or delivered live and again by a catch-up sync).
+ * Two generations of open-addressing long tables, no boxing and no per-entry objects: ids go
+ * into the current generation, when it is full the older one is cleared and becomes the current.
+ * So at least the last `capacity` ids are remembered, older ones are forgotten in bulk.
+ * Id 0 means "no id" and is never stored. Not thread safe.
+ * @author Max Staneker, Mia Schienagel
+ */
+class SeenIdFilter {
+    private final int capacity; // Ids per generation
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+
+    SeenIdFilter(int capacity) {
+        this.capacity = capacity;
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1; // Load factor <= 0.5
+        current = new long[tableSize];
+        previous = new long[tableSize];
+    }
+
+    /**
+     * @return true if the id was new, false if it was seen before
+     */
+    boolean add(long id) {
+        if (id == 0) {
+            return true;
+        }
+        if (contains(previous, id) || contains(current, id)) {
+            return false;
+        }
+        if (currentSize == capacity) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0);
+            previous = current;
+            current = cleared;
+            currentSize = 0;
+        }
+        insert(current, id);
+        currentSize++;
+        return true;
+    }
+
+    boolean contains(long id) {
+        return id != 0 && (contains(current, id) || contains(previous, id));
+    }
+
+    private static boolean contains(long[] table, long id) {
+        int mask = table.length - 1;
+        for (int i = mix(id) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void insert(long[] table, long id) {
+        int mask = table.length - 1;
+        int i = mix(id) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id;
+    }
+
+    // Ids are random, but spread the bits anyway in case a sender isn't
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
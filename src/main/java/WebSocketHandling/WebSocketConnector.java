@@ -0,0 +1,52 @@
+package WebSocketHandling;
+
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.Extension;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Connects programmatic endpoints with the client settings shared by all connections:
+ * offered subprotocols and permessage-deflate (on by default, -Dmchat.ws.deflate=false to turn it off).
+ * Annotated endpoints can't offer extensions, so the endpoints are connected through an Endpoint adapter.
+ * @author Max Staneker, Mia Schienagel
+ */
+public final class WebSocketConnector {
+    public static final String DEFLATE_EXTENSION = "permessage-deflate";
+    private static final boolean DEFLATE_ENABLED = !"false".equals(System.getProperty("mchat.ws.deflate"));
+
+    private WebSocketConnector() {
+    }
+
+    /**
+     * @param stats Counters for this connection, filled if the server accepts permessage-deflate
+     */
+    public static Session connect(WebSocketContainer container, Endpoint endpoint, URI uri,
+                                  CompressionStats stats, String... subprotocols) throws DeploymentException, IOException {
+        List<Extension> extensions = DEFLATE_ENABLED ? List.of(new CountingDeflateExtension(stats)) : List.of();
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+                .preferredSubprotocols(Arrays.asList(subprotocols))
+                .extensions(extensions)
+                .build();
+        Session session = container.connectToServer(endpoint, config, uri);
+        stats.setNegotiated(isDeflateNegotiated(session));
+        System.out.println("[CLIENT] " + DEFLATE_EXTENSION + (stats.isNegotiated() ? " negotiated" : " not negotiated") + " for " + uri);
+        return session;
+    }
+
+    private static boolean isDeflateNegotiated(Session session) {
+        for (Extension extension : session.getNegotiatedExtensions()) {
+            if (DEFLATE_EXTENSION.equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,6 +2,8 @@ package model;
 
 import jakarta.json.bind.annotation.JsonbProperty;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 public class Message {
     @JsonbProperty("sender")
     private String sender;
@@ -11,6 +13,10 @@ public class Message {
     private String recipient; 
     @JsonbProperty("timestamp")
     private long timestamp;
+    @JsonbProperty("id")
+    private long id;  // Chosen by the sender, stays the same when a message is sent again; 0 = none
+    @JsonbProperty("seq")
+    private long seq; // Assigned by the server, counts per sender and recipient from 1; 0 = none
 
     // Default constructor
     public Message() {
@@ -63,6 +69,29 @@ public class Message {
         this.timestamp = timestamp;
     }
 
+    public long getId() {
+        return id;
+    }
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    // Random non-zero message id
+    public static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
@@ -70,6 +99,8 @@ public class Message {
                 ", content='" + content + '\'' +
                 ", timestamp=" + timestamp +
                 (recipient != null ? ", recipient='" + recipient + '\'' : "") +
+                (id != 0 ? ", id=" + Long.toHexString(id) : "") +
+                (seq != 0 ? ", seq=" + seq : "") +
                 '}';
     }
 }
@@ -0,0 +1,215 @@
+package model;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParserFactory;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * JSON codec for Message on the jakarta.json streaming API, without the reflection of Jsonb.
+ * Reads and writes the fields (sender, content, recipient, timestamp, id, seq) directly and skips
+ * unknown fields without building them. Properties are written in the same order as Jsonb and null
+ * fields are left out like Jsonb does, but unlike Jsonb id and seq are also left out when they are 0.
+ * Reading treats a missing id or seq as 0, so both paths read each other's output to the same Message.
+ * Frames of any other shape, e.g. a timestamp sent as string,
+ * are handed to Jsonb as before.
+ * Lists of messages (the "sync-batch:" frame) are written as a JSON array.
+ * Run MessageCodecBenchmark to compare both paths.
+ * @author Max Staneker, Mia Schienagel
+ */
+public final class MessageCodec {
+    // Factories are thread safe, creating parsers through Json.createParser would look up the provider every time
+    private static final JsonParserFactory parserFactory = Json.createParserFactory(null);
+    private static final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(null);
+
+    private static final int MAX_REUSED_BUFFER = 64 * 1024; // Don't keep the buffer of a huge message around
+    private static final ThreadLocal<StringWriter> writers = ThreadLocal.withInitial(() -> new StringWriter(512));
+
+    // Only initialised when the first unusual frame arrives
+    private static final class Fallback {
+        static final Jsonb jsonb = JsonbBuilder.create();
+    }
+
+    private MessageCodec() {
+    }
+
+    public static String toJson(Message message) {
+        StringWriter writer = reusedWriter();
+        try (JsonGenerator generator = generatorFactory.createGenerator(writer)) {
+            write(generator, message);
+        }
+        return writer.toString();
+    }
+
+    public static String toJsonArray(List<Message> messages) {
+        StringWriter writer = reusedWriter();
+        try (JsonGenerator generator = generatorFactory.createGenerator(writer)) {
+            generator.writeStartArray();
+            for (Message message : messages) {
+                write(generator, message);
+            }
+            generator.writeEnd();
+        }
+        return writer.toString();
+    }
+
+    private static StringWriter reusedWriter() {
+        StringWriter writer = writers.get();
+        if (writer.getBuffer().capacity() > MAX_REUSED_BUFFER) {
+            writer = new StringWriter(512);
+            writers.set(writer);
+        } else {
+            writer.getBuffer().setLength(0);
+        }
+        return writer;
+    }
+
+    private static void write(JsonGenerator generator, Message message) {
+        // Same property order as Jsonb (lexicographical)
+        generator.writeStartObject();
+        if (message.getContent() != null) {
+            generator.write("content", message.getContent());
+        }
+        if (message.getId() != 0) {
+            generator.write("id", message.getId());
+        }
+        if (message.getRecipient() != null) {
+            generator.write("recipient", message.getRecipient());
+        }
+        if (message.getSender() != null) {
+            generator.write("sender", message.getSender());
+        }
+        if (message.getSeq() != 0) {
+            generator.write("seq", message.getSeq());
+        }
+        generator.write("timestamp", message.getTimestamp());
+        generator.writeEnd();
+    }
+
+    public static Message fromJson(String json) {
+        try {
+            Message message = parse(json);
+            if (message != null) {
+                return message;
+            }
+        } catch (JsonException e) {
+            // Let Jsonb decide, it reports the error the same way as before
+        }
+        return Fallback.jsonb.fromJson(json, Message.class);
+    }
+
+    public static List<Message> fromJsonArray(String json) {
+        try {
+            List<Message> messages = parseArray(json);
+            if (messages != null) {
+                return messages;
+            }
+        } catch (JsonException e) {
+            // Same as for single messages
+        }
+        return Arrays.asList(Fallback.jsonb.fromJson(json, Message[].class));
+    }
+
+    // Returns null if the frame does not have the expected shape
+    private static Message parse(String json) {
+        try (JsonParser parser = parserFactory.createParser(new StringReader(json))) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                return null;
+            }
+            Message message = parseObject(parser);
+            return message == null || parser.hasNext() ? null : message; // Nothing may follow the object
+        }
+    }
+
+    private static List<Message> parseArray(String json) {
+        try (JsonParser parser = parserFactory.createParser(new StringReader(json))) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY) {
+                return null;
+            }
+            List<Message> messages = new ArrayList<>();
+            for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+                Message message = event == JsonParser.Event.START_OBJECT ? parseObject(parser) : null;
+                if (message == null) {
+                    return null;
+                }
+                messages.add(message);
+            }
+            return parser.hasNext() ? null : messages;
+        }
+    }
+
+    // Reads the fields of an object whose START_OBJECT was just consumed, null if a field has the wrong type
+    private static Message parseObject(JsonParser parser) {
+        Message message = new Message();
+        for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_OBJECT; event = parser.next()) {
+            String key = parser.getString(); // Inside an object every other event is a key
+            JsonParser.Event value = parser.next();
+            switch (key) {
+                case "sender":
+                case "content":
+                case "recipient":
+                    if (value != JsonParser.Event.VALUE_STRING && value != JsonParser.Event.VALUE_NULL) {
+                        return null;
+                    }
+                    setText(message, key, value == JsonParser.Event.VALUE_STRING ? parser.getString() : null);
+                    break;
+                case "timestamp":
+                case "id":
+                case "seq":
+                    if (value != JsonParser.Event.VALUE_NUMBER || !parser.isIntegralNumber()) {
+                        return null;
+                    }
+                    setNumber(message, key, parser.getLong());
+                    break;
+                default:
+                    skip(parser, value);
+            }
+        }
+        return message;
+    }
+
+    private static void setText(Message message, String key, String value) {
+        switch (key) {
+            case "sender":
+                message.setSender(value);
+                break;
+            case "content":
+                message.setContent(value);
+                break;
+            default:
+                message.setRecipient(value);
+        }
+    }
+
+    private static void setNumber(Message message, String key, long value) {
+        switch (key) {
+            case "timestamp":
+                message.setTimestamp(value);
+                break;
+            case "id":
+                message.setId(value);
+                break;
+            default:
+                message.setSeq(value);
+        }
+    }
+
+    private static void skip(JsonParser parser, JsonParser.Event value) {
+        if (value == JsonParser.Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (value == JsonParser.Event.START_ARRAY) {
+            parser.skipArray();
+        }
+        // Scalars are already consumed
+    }
+}
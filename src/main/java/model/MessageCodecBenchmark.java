@@ -0,0 +1,60 @@
+package model;
+
+/*
+ * Compares MessageCodec with the Jsonb path it replaces: time and allocated bytes
+ * per message, for writing and for reading a typical encrypted chat message.
+ * Run with: java model.MessageCodecBenchmark [iterations]
+ * @author Max Staneker, Mia Schienagel
+ */
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public class MessageCodecBenchmark {
+    private static final int WARMUP_ITERATIONS = 20_000;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Jsonb jsonb = JsonbBuilder.create();
+
+        // Roughly the size of a short message in the envelope format
+        byte[] ciphertext = new byte[300];
+        new Random(42).nextBytes(ciphertext);
+        Message message = new Message("alice", "ENV1:" + Base64.getEncoder().encodeToString(ciphertext), "bob");
+        String json = MessageCodec.toJson(message);
+
+        System.out.println("[BENCHMARK] " + iterations + " messages, " + json.length() + " chars JSON");
+        System.out.printf("%-24s %12s %14s%n", "Operation", "ns/msg", "bytes/msg");
+        run("Jsonb toJson", iterations, () -> jsonb.toJson(message));
+        run("MessageCodec toJson", iterations, () -> MessageCodec.toJson(message));
+        run("Jsonb fromJson", iterations, () -> jsonb.fromJson(json, Message.class));
+        run("MessageCodec fromJson", iterations, () -> MessageCodec.fromJson(json));
+    }
+
+    private static void run(String name, int iterations, Supplier<Object> operation) {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = operation.get();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = operation.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-24s %12.0f %14d%n", name, (double) elapsed / iterations, allocated / iterations);
+        if (sink == null) {
+            System.out.println(); // Keeps the JIT from dropping the work
+        }
+    }
+}
@@ -5,28 +5,54 @@ package model;
  * It is equivalent to the User class in the Server project.
  * @author Max Staneker, Mia Schienagel
  * It contains the user's name, a unique key, and the last login time.
+ * A user has either an RSA key or an elliptic curve key (KeyProfile.EC_25519).
  * @version 0.1 
  */
+import Crypto.ECKey;
+import Crypto.KeyProfile;
+import Crypto.KeyType;
+import Crypto.MessageKey;
 import Crypto.RSAKey;
 import utils.CredentialsManager;
 import java.util.Properties;
 
 public class User {
     private String name;
-    private final RSAKey key; // Unique identifier for the user
+    private final RSAKey key; // Unique identifier for the user, null for EC users
+    private final ECKey ecKey; // Only for EC users
     private long lastLoginTime;
 
     public User(String name) {
-        this(name, false, null);
+        this(name, KeyProfile.DEFAULT);
+    }
+
+    // New user with new keys of the given strength
+    public User(String name, KeyProfile profile) {
+        this.name = name;
+        if (profile.getKeyType() == KeyType.EC) {
+            this.key = null;
+            this.ecKey = new ECKey();
+            CredentialsManager.saveCredentials(name, ecKey);
+        } else {
+            this.key = new RSAKey(profile);
+            this.ecKey = null;
+            CredentialsManager.saveCredentials(name, key);
+        }
     }
     
     public User(String name, boolean loadFromCredentials, Properties credentials) {
         this.name = name;
+        if (loadFromCredentials && credentials != null && "EC".equals(credentials.getProperty("keyType"))) {
+            this.key = null;
+            this.ecKey = new ECKey(credentials);
+            return;
+        }
         this.key = new RSAKey(loadFromCredentials, credentials);
+        this.ecKey = null;
         
         // If new keys were generated, save them
         if (!loadFromCredentials || credentials == null) {
-            CredentialsManager.saveCredentials(name, key.getN(), key.getE(), key.getD());
+            CredentialsManager.saveCredentials(name, key);
         }
     }
 
@@ -46,7 +72,20 @@ public class User {
         this.lastLoginTime = lastLoginTime;
     }
 
+    public KeyType getKeyType() {
+        return ecKey != null ? KeyType.EC : KeyType.RSA;
+    }
+
     public RSAKey getKey() {
         return key;
     }
+
+    public ECKey getECKey() {
+        return ecKey;
+    }
+
+    // The key used to decrypt incoming messages, whatever its type
+    public MessageKey getMessageKey() {
+        return ecKey != null ? ecKey : key;
+    }
 }
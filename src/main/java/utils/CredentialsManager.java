@@ -1,5 +1,9 @@
 package utils;
 
+import Crypto.ECKey;
+import Crypto.KeyProfile;
+import Crypto.RSAKey;
+
 import java.io.*;
 import java.math.BigInteger;
 import java.nio.file.Files;
@@ -17,12 +21,79 @@ import java.util.Properties;
 public class CredentialsManager {
     private static final String CREDENTIALS_DIR = "UserData";
     private static final String CREDENTIALS_FILE = "credentials.properties";
+    private static final String[] CRT_PROPERTIES = {"private.p", "private.q", "private.dp", "private.dq", "private.qinv"};
+    private static final String[] EC_PROPERTIES = {"ec.sign.public", "ec.sign.private", "ec.agree.public", "ec.agree.private"};
     
     /**
      * Save user credentials including RSA keys to file
      * Now supports multiple users by using username-prefixed properties
      */
     public static void saveCredentials(String username, BigInteger n, BigInteger e, BigInteger d) {
+        saveCredentials(username, n, e, d, null, null);
+    }
+
+    /**
+     * Save user credentials including the CRT parameters (p, q, dP, dQ, qInv) and the key profile,
+     * so private key operations stay fast after the next login
+     */
+    public static void saveCredentials(String username, RSAKey key) {
+        BigInteger[] crtParams = null;
+        if (key.hasCrtParameters()) {
+            crtParams = new BigInteger[]{key.getP(), key.getQ(), key.getDP(), key.getDQ(), key.getQInv()};
+        }
+        saveCredentials(username, key.getN(), key.getE(), key.getD(), crtParams, key.getProfile().name());
+    }
+
+    /**
+     * Save user credentials with elliptic curve keys (Ed25519 for signing, X25519 for key agreement)
+     */
+    public static void saveCredentials(String username, ECKey key) {
+        try {
+            Properties props = loadCredentialsFile();
+            String userPrefix = "user." + username + ".";
+            // Remove RSA values of an older key of the same user
+            for (String rsaKey : new String[]{"public.n", "public.e", "private.d"}) {
+                props.remove(userPrefix + rsaKey);
+            }
+            for (String crtKey : CRT_PROPERTIES) {
+                props.remove(userPrefix + crtKey);
+            }
+            props.setProperty(userPrefix + "keyType", "EC");
+            props.setProperty(userPrefix + "keyProfile", KeyProfile.EC_25519.name());
+            key.storeTo(props, userPrefix);
+            props.setProperty(userPrefix + "registrationTime", String.valueOf(System.currentTimeMillis()));
+            storeCredentialsFile(props);
+
+            System.out.println("[CLIENT] EC credentials saved for user: " + username);
+        } catch (IOException ex) {
+            System.err.println("[CLIENT] Error saving credentials: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // Loads the whole credentials file, or empty properties if there is none yet
+    private static Properties loadCredentialsFile() throws IOException {
+        Properties props = new Properties();
+        File credentialsFile = new File(CREDENTIALS_DIR, CREDENTIALS_FILE);
+        if (credentialsFile.exists()) {
+            try (FileInputStream fis = new FileInputStream(credentialsFile)) {
+                props.load(fis);
+            }
+        }
+        return props;
+    }
+
+    private static void storeCredentialsFile(Properties props) throws IOException {
+        Path credentialsDir = Paths.get(CREDENTIALS_DIR);
+        if (!Files.exists(credentialsDir)) {
+            Files.createDirectories(credentialsDir);
+        }
+        try (FileOutputStream fos = new FileOutputStream(new File(credentialsDir.toFile(), CREDENTIALS_FILE))) {
+            props.store(fos, "Multi-User Credentials - Updated on " + new java.util.Date());
+        }
+    }
+
+    private static void saveCredentials(String username, BigInteger n, BigInteger e, BigInteger d, BigInteger[] crtParams, String keyProfile) {
         try {
             // Create directory if it doesn't exist
             Path credentialsDir = Paths.get(CREDENTIALS_DIR);
@@ -42,9 +113,30 @@ public class CredentialsManager {
             
             // Add new user credentials with username prefix
             String userPrefix = "user." + username + ".";
+            props.setProperty(userPrefix + "keyType", "RSA");
+            for (String ecKey : EC_PROPERTIES) {
+                props.remove(userPrefix + ecKey);
+            }
             props.setProperty(userPrefix + "public.n", n.toString(16));
             props.setProperty(userPrefix + "public.e", e.toString(16));
             props.setProperty(userPrefix + "private.d", d.toString(16));
+            if (crtParams != null) {
+                props.setProperty(userPrefix + "private.p", crtParams[0].toString(16));
+                props.setProperty(userPrefix + "private.q", crtParams[1].toString(16));
+                props.setProperty(userPrefix + "private.dp", crtParams[2].toString(16));
+                props.setProperty(userPrefix + "private.dq", crtParams[3].toString(16));
+                props.setProperty(userPrefix + "private.qinv", crtParams[4].toString(16));
+            } else {
+                // Don't keep stale CRT values from an older key of the same user
+                for (String crtKey : CRT_PROPERTIES) {
+                    props.remove(userPrefix + crtKey);
+                }
+            }
+            if (keyProfile != null) {
+                props.setProperty(userPrefix + "keyProfile", keyProfile);
+            } else {
+                props.remove(userPrefix + "keyProfile");
+            }
             props.setProperty(userPrefix + "registrationTime", String.valueOf(System.currentTimeMillis()));
             
             // Save updated properties
@@ -78,17 +170,35 @@ public class CredentialsManager {
             }
 
             String prefix = "user." + username + ".";
-            if (!props.containsKey(prefix + "public.n")) {
+            boolean ecKeys = "EC".equals(props.getProperty(prefix + "keyType"));
+            if (!props.containsKey(prefix + "public.n") && !ecKeys) {
                 System.out.println("[CLIENT] No credentials found for user: " + username);
                 return null;
             }
 
             Properties userProps = new Properties();
             userProps.setProperty("username", username);
-            userProps.setProperty("public.n", props.getProperty(prefix + "public.n"));
-            userProps.setProperty("public.e", props.getProperty(prefix + "public.e"));
-            userProps.setProperty("private.d", props.getProperty(prefix + "private.d"));
+            userProps.setProperty("keyType", ecKeys ? "EC" : "RSA"); // Older entries have no key type and are RSA
+            if (ecKeys) {
+                for (String ecKey : EC_PROPERTIES) {
+                    userProps.setProperty(ecKey, props.getProperty(prefix + ecKey));
+                }
+            } else {
+                userProps.setProperty("public.n", props.getProperty(prefix + "public.n"));
+                userProps.setProperty("public.e", props.getProperty(prefix + "public.e"));
+                userProps.setProperty("private.d", props.getProperty(prefix + "private.d"));
+            }
+            // CRT parameters are optional, older credentials files only hold n/e/d
+            for (String crtKey : CRT_PROPERTIES) {
+                String value = props.getProperty(prefix + crtKey);
+                if (value != null) {
+                    userProps.setProperty(crtKey, value);
+                }
+            }
             userProps.setProperty("registrationTime", props.getProperty(prefix + "registrationTime"));
+            if (props.getProperty(prefix + "keyProfile") != null) {
+                userProps.setProperty("keyProfile", props.getProperty(prefix + "keyProfile"));
+            }
 
             System.out.println("[CLIENT] Credentials loaded for user: " + username);
             return userProps;
@@ -140,8 +250,9 @@ public class CredentialsManager {
             }
 
             for (String key : props.stringPropertyNames()) {
-                if (key.startsWith("user.") && key.endsWith(".public.n")) {
-                    String name = key.substring("user.".length(), key.length() - ".public.n".length());
+                String suffix = key.endsWith(".public.n") ? ".public.n" : key.endsWith(".ec.sign.public") ? ".ec.sign.public" : null;
+                if (key.startsWith("user.") && suffix != null) {
+                    String name = key.substring("user.".length(), key.length() - suffix.length());
                     if (!users.contains(name)) {
                         users.add(name);
                     }
@@ -7,6 +7,8 @@ import javax.swing.*;
 import java.awt.*;
 
 
+import Crypto.KeyPairPool;
+import Crypto.KeyProfile;
 import model.User;
 /**
  * A dialog for user login and registration.
@@ -18,6 +20,7 @@ import model.User;
 public class LoginDialog extends JDialog {
     private JTextField usernameField;
     private JPasswordField passwordField;
+    private JComboBox<KeyProfile> keyProfileBox;
     private JButton loginButton;
     private JButton registerButton;
     private String loggedInUser;
@@ -35,6 +38,8 @@ public class LoginDialog extends JDialog {
     private void initComponents() {
         usernameField = new JTextField(15);
         passwordField = new JPasswordField(15);
+        keyProfileBox = new JComboBox<>(KeyProfile.values());
+        keyProfileBox.setSelectedItem(KeyProfile.DEFAULT);
         loginButton = new JButton("Login");
         registerButton = new JButton("Register");
 
@@ -56,6 +61,12 @@ public class LoginDialog extends JDialog {
 
         gbc.gridx = 0;
         gbc.gridy = 2;
+        panel.add(new JLabel("Key strength:"), gbc);
+        gbc.gridx = 1;
+        panel.add(keyProfileBox, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 3;
         panel.add(loginButton, gbc);
         gbc.gridx = 1;
         panel.add(registerButton, gbc);
@@ -65,6 +76,8 @@ public class LoginDialog extends JDialog {
 
         loginButton.addActionListener(e -> onLogin());
         registerButton.addActionListener(e -> onRegister());
+        // Only matters for registration, start the prime search for a non-default profile right away
+        keyProfileBox.addActionListener(e -> KeyPairPool.start((KeyProfile) keyProfileBox.getSelectedItem()));
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
     }
 
@@ -103,6 +116,7 @@ public class LoginDialog extends JDialog {
             JOptionPane.showMessageDialog(this, "Please enter username and password", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        KeyProfile keyProfile = (KeyProfile) keyProfileBox.getSelectedItem();
 
         // Zeige Loading-Dialog
         JDialog loadingDialog = new JDialog(this, "Registrierung", true);
@@ -112,14 +126,14 @@ public class LoginDialog extends JDialog {
         loadingDialog.pack();
         loadingDialog.setLocationRelativeTo(this);
         
-        // Verwende SwingWorker für die Registrierung im Hintergrund
+        // Verwende SwingWorker für die Registrierung im Hintergrund (auf dem gemeinsamen I/O-Executor)
         SwingWorker<Boolean, String> worker = new SwingWorker<Boolean, String>() {
             @Override
             protected Boolean doInBackground() throws Exception {
                 publish("Verbinde mit Server...");
                 
                 // Erstelle temporären Benutzer für Schlüsselgenerierung
-                User tempUser = new User(username);
+                User tempUser = new User(username, keyProfile);
                 
                 // Verbinde mit Server
                 String serverUri = "ws://localhost:8081/Gradle___com_maxstaneker_chatapp___chatApp_backend_1_0_SNAPSHOT_war/chat";
@@ -142,11 +156,16 @@ public class LoginDialog extends JDialog {
                 publish("Registriere Benutzer...");
                 
                 // Registriere Benutzer auf Server
-                RegistrationClient.ServerRegistrationResult regResult = regClient.registerUser(
-                    username, 
-                    tempUser.getKey().getN(), 
-                    tempUser.getKey().getE()
-                );
+                RegistrationClient.ServerRegistrationResult regResult;
+                if (tempUser.getECKey() != null) {
+                    regResult = regClient.registerUser(username, tempUser.getECKey());
+                } else {
+                    regResult = regClient.registerUser(
+                        username, 
+                        tempUser.getKey().getN(), 
+                        tempUser.getKey().getE()
+                    );
+                }
                 
                 regClient.disconnect();
                 
@@ -158,14 +177,13 @@ public class LoginDialog extends JDialog {
                         fileOps.appendLine(USER_FILE, username + ":" + password);
                         System.out.println("[CLIENT] User registered locally: " + username);
                         
-                        // Speichere die RSA-Schlüssel in CredentialsManager
-                        CredentialsManager.saveCredentials(
-                            username, 
-                            tempUser.getKey().getN(), 
-                            tempUser.getKey().getE(), 
-                            tempUser.getKey().getD()
-                        );
-                        System.out.println("[CLIENT] RSA credentials saved for user: " + username);
+                        // Speichere die Schlüssel in CredentialsManager
+                        if (tempUser.getECKey() != null) {
+                            CredentialsManager.saveCredentials(username, tempUser.getECKey());
+                        } else {
+                            CredentialsManager.saveCredentials(username, tempUser.getKey());
+                            System.out.println("[CLIENT] RSA credentials saved for user: " + username);
+                        }
                     } catch (IOException ex) {
                         System.err.println("[CLIENT] Error writing user file: " + ex.getMessage());
                         // Server-Registrierung war erfolgreich, lokaler Fehler ist weniger kritisch
@@ -214,7 +232,7 @@ public class LoginDialog extends JDialog {
             }
         };
         
-        worker.execute();
+        TaskExecutors.io().execute(worker); // Statt worker.execute(), das nur 10 SwingWorker-Threads hat
         loadingDialog.setVisible(true);
     }
 
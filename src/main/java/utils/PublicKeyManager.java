@@ -1,10 +1,16 @@
 package utils;
 
+import Crypto.ECKey;
 import WebSocketHandling.ChatClientEndpoint;
 import model.Message;
 import model.User;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -12,12 +18,26 @@ import java.util.concurrent.TimeUnit;
 /**
  * Manages public keys for other users in the chat application.
  * Handles automatic key retrieval, caching, and validation.
+ * Lookups are not sent right away: all names requested within a short window
+ * (-Dmchat.keys.batchWindow, ms, default 20) go out as one "get-public-keys:a,b,c" request
+ * and come back as one "public-keys:" response. A single name still uses "get-public-key:".
+ * With -Dmchat.keys.prefetch=true (default) the keys of all online users are fetched as soon as
+ * the online list arrives.
+ * Fetched keys are also kept on disk by PublicKeyStore. After a restart they are used right away.
+ * Keys older than the TTL (-Dmchat.keys.ttl) are still used but fetched again in the background,
+ * whether they come from memory or disk. If the server
+ * then returns a different key the change is logged and the session with that user is restarted.
  * @author Max Staneker, Mia Schienagel
- * @version 1.5
+ * @version 1.6
  */
 public class PublicKeyManager {
-    private static final Map<String, BigInteger[]> publicKeyCache = new ConcurrentHashMap<>(); // username -> {n, e}
+    private static final Map<String, BigInteger[]> publicKeyCache = new ConcurrentHashMap<>(); // username -> {n, e}, or {u} for EC users
     private static final Map<String, CompletableFuture<BigInteger[]>> pendingRequests = new ConcurrentHashMap<>();
+
+    private static final long BATCH_WINDOW_MS = Long.getLong("mchat.keys.batchWindow", 20);
+    private static final int MAX_BATCH = Integer.getInteger("mchat.keys.maxBatch", 100); // Names per request
+    private static final boolean PREFETCH_ONLINE = Boolean.parseBoolean(System.getProperty("mchat.keys.prefetch", "true"));
+    private static final Set<String> queuedLookups = new LinkedHashSet<>(); // Guarded by itself, waiting for the next batch
     
     private static ChatClientEndpoint chatClient;
     private static User currentUser;
@@ -28,20 +48,28 @@ public class PublicKeyManager {
     public static void initialize(ChatClientEndpoint client, User user) {
         chatClient = client;
         currentUser = user;
+        PublicKeyStore.preload();
     }
     
     /**
      * Get public key for a user. Returns cached key immediately or requests it from server.
      * @param username The username to get the public key for
-     * @return CompletableFuture that resolves to the public key {n, e} or null if not found
+     * @return CompletableFuture that resolves to the public key {n, e} (or {u} for EC users) or null if not found
      */
     public static CompletableFuture<BigInteger[]> getPublicKey(String username) {
         // Check cache first
         BigInteger[] cachedKey = publicKeyCache.get(username);
         if (cachedKey != null) {
             System.out.println("[KEYMANAGER] Using cached public key for: " + username);
+            revalidateIfStale(username);
             return CompletableFuture.completedFuture(cachedKey);
         }
+
+        // Then the key store on disk, a stale key is used anyway while it is revalidated
+        BigInteger[] storedKey = loadStoredKey(username);
+        if (storedKey != null) {
+            return CompletableFuture.completedFuture(storedKey);
+        }
         
         // Check if request is already pending
         CompletableFuture<BigInteger[]> pendingRequest = pendingRequests.get(username);
@@ -50,42 +78,190 @@ public class PublicKeyManager {
             return pendingRequest;
         }
         
-        // Create new request
+        return requestPublicKey(username);
+    }
+
+    // Create new request, a concurrent caller for the same name gets the same future
+    private static CompletableFuture<BigInteger[]> requestPublicKey(String username) {
         CompletableFuture<BigInteger[]> future = new CompletableFuture<>();
-        pendingRequests.put(username, future);
-        
-        try {
-            Message keyRequest = new Message(currentUser.getUsername(), "get-public-key:" + username);
-            chatClient.sendMessage(keyRequest);
-            System.out.println("[KEYMANAGER] Requesting public key for: " + username);
-            
-            // Set timeout for request
-            future.orTimeout(10, TimeUnit.SECONDS);
-            
-        } catch (Exception ex) {
-            System.err.println("[KEYMANAGER] Failed to request public key: " + ex.getMessage());
-            future.completeExceptionally(ex);
-            pendingRequests.remove(username);
+        CompletableFuture<BigInteger[]> existing = pendingRequests.putIfAbsent(username, future);
+        if (existing != null) {
+            return existing;
         }
-        
+
+        // Set timeout for request, a timed out request must not stay pending forever
+        future.orTimeout(10, TimeUnit.SECONDS).whenComplete((key, ex) -> {
+            if (ex != null) {
+                pendingRequests.remove(username, future);
+            }
+        });
+        queueLookup(username);
         return future;
     }
+
+    // Key from the disk store into the memory cache, starts a revalidation if it is older than the TTL
+    private static BigInteger[] loadStoredKey(String username) {
+        String storedKey = PublicKeyStore.getKey(username);
+        if (storedKey == null) {
+            return null;
+        }
+        BigInteger[] publicKey;
+        try {
+            publicKey = parseKey(storedKey);
+        } catch (RuntimeException e) {
+            System.err.println("[KEYMANAGER] Stored public key of " + username + " is invalid: " + e.getMessage());
+            PublicKeyStore.remove(username);
+            return null;
+        }
+        publicKeyCache.put(username, publicKey);
+        System.out.println("[KEYMANAGER] Using stored public key for: " + username);
+        revalidateIfStale(username);
+        return publicKey;
+    }
+
+    // Fetches the key again in the background if it is older than the TTL, at most one request per user at a time
+    private static void revalidateIfStale(String username) {
+        if (chatClient != null && !pendingRequests.containsKey(username) && PublicKeyStore.isStale(username)) {
+            System.out.println("[KEYMANAGER] Public key for " + username + " expired, revalidating");
+            requestPublicKey(username);
+        }
+    }
+
+    /**
+     * Parses a key in the server's format, "n:e" or "ed25519:x25519:ec" for EC users
+     * @return {n, e} or {u} for EC users, null if the format is unknown
+     */
+    private static BigInteger[] parseKey(String keyText) {
+        String[] parts = keyText.split(":");
+        if (parts.length == 3 && "ec".equals(parts[2])) {
+            // Only the agreement key is needed to encrypt, signatures are checked by the server
+            return new BigInteger[]{ECKey.decodeAgreementKey(parts[1])};
+        }
+        if (parts.length == 2) {
+            return new BigInteger[]{new BigInteger(parts[0], 16), new BigInteger(parts[1], 16)};
+        }
+        return null;
+    }
+
+    // Adds the name to the next batch, the first name of a batch schedules the flush
+    private static void queueLookup(String username) {
+        boolean first;
+        synchronized (queuedLookups) {
+            first = queuedLookups.isEmpty();
+            queuedLookups.add(username);
+        }
+        if (first) {
+            CompletableFuture.runAsync(PublicKeyManager::flushLookups,
+                    CompletableFuture.delayedExecutor(BATCH_WINDOW_MS, TimeUnit.MILLISECONDS, TaskExecutors.io()));
+        }
+    }
+
+    private static void flushLookups() {
+        List<String> names;
+        synchronized (queuedLookups) {
+            names = new ArrayList<>(queuedLookups);
+            queuedLookups.clear();
+        }
+        for (int start = 0; start < names.size(); start += MAX_BATCH) {
+            List<String> batch = names.subList(start, Math.min(start + MAX_BATCH, names.size()));
+            String content = batch.size() == 1
+                    ? "get-public-key:" + batch.get(0)
+                    : "get-public-keys:" + String.join(",", batch);
+            try {
+                chatClient.sendMessage(new Message(currentUser.getUsername(), content)).exceptionally(ex -> {
+                    failLookups(batch, ex);
+                    return null;
+                });
+                System.out.println("[KEYMANAGER] Requesting public keys for: " + batch);
+            } catch (Exception ex) {
+                System.err.println("[KEYMANAGER] Failed to request public keys: " + ex.getMessage());
+                failLookups(batch, ex);
+            }
+        }
+    }
+
+    private static void failLookups(List<String> names, Throwable error) {
+        for (String name : names) {
+            CompletableFuture<BigInteger[]> pending = pendingRequests.remove(name);
+            if (pending != null) {
+                pending.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * Fetch the keys of all given users that are not cached yet, in as few requests as possible
+     * (e.g. everyone in the online list). Does nothing if prefetching is turned off.
+     */
+    public static void prefetch(Collection<String> usernames) {
+        if (!PREFETCH_ONLINE || chatClient == null) {
+            return;
+        }
+        int count = 0;
+        for (String username : usernames) {
+            if (!username.equals(currentUser.getUsername()) && !hasPublicKey(username) && !pendingRequests.containsKey(username)
+                    && loadStoredKey(username) == null) {
+                getPublicKey(username);
+                count++;
+            }
+        }
+        if (count > 0) {
+            System.out.println("[KEYMANAGER] Prefetching " + count + " public keys");
+        }
+    }
     
     /**
      * Handle public key response from server
      * @param response The response string in format "public-key:username:n:e"
+     *                 or "public-key:username:ed25519:x25519:ec" for EC users,
+     *                 or a bulk response "public-keys:entry;entry;..." where every entry is
+     *                 "username:n:e", "username:ed25519:x25519:ec" or just "username" if not found
      */
     public static void handlePublicKeyResponse(String response) {
-        // Format: "public-key:username:n:e"
-        String[] parts = response.split(":");
-        if (parts.length == 4) {
-            String username = parts[1];
-            BigInteger n = new BigInteger(parts[2], 16);
-            BigInteger e = new BigInteger(parts[3], 16);
+        if (response.startsWith("public-keys:")) {
+            int count = 0;
+            for (String entry : response.substring("public-keys:".length()).split(";")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                try {
+                    handlePublicKeyResponse(entry.indexOf(':') < 0 ? "public-key-not-found:" + entry : "public-key:" + entry);
+                } catch (RuntimeException e) {
+                    // One broken entry must not leave the other names of the batch waiting
+                    String username = entry.indexOf(':') < 0 ? entry : entry.substring(0, entry.indexOf(':'));
+                    System.err.println("[KEYMANAGER] Invalid entry for " + username + " in bulk response: " + e.getMessage());
+                    completeNotFound(username);
+                }
+                count++;
+            }
+            System.out.println("[KEYMANAGER] Handled bulk response with " + count + " keys");
+            return;
+        }
+        // Format: "public-key:username:n:e" or "public-key:username:ed25519:x25519:ec"
+        int keyStart = response.startsWith("public-key:") ? response.indexOf(':', "public-key:".length()) : -1;
+        BigInteger[] publicKey;
+        try {
+            publicKey = keyStart < 0 ? null : parseKey(response.substring(keyStart + 1));
+        } catch (RuntimeException e) {
+            // Malformed number or EC key, answer the request instead of letting it time out
+            String username = response.substring("public-key:".length(), keyStart);
+            System.err.println("[KEYMANAGER] Invalid public key for " + username + ": " + e.getMessage());
+            completeNotFound(username);
+            return;
+        }
+        if (publicKey != null) {
+            String username = response.substring("public-key:".length(), keyStart);
+            String keyText = response.substring(keyStart + 1);
             
-            // Store in cache
-            BigInteger[] publicKey = new BigInteger[]{n, e};
+            // Store in cache and on disk
             publicKeyCache.put(username, publicKey);
+            String previousFingerprint = PublicKeyStore.put(username, keyText);
+            if (previousFingerprint != null) {
+                // A different key than last time, the partner re-registered (or someone pretends to be them)
+                System.err.println("[KEYMANAGER] WARNING: Public key of " + username + " changed! Old fingerprint "
+                        + previousFingerprint + ", new " + PublicKeyStore.fingerprint(keyText));
+                SessionKeyManager.invalidate(username);
+            }
             System.out.println("[KEYMANAGER] Public key received and cached for: " + username);
             
             // Complete pending future if exists
@@ -97,16 +273,21 @@ public class PublicKeyManager {
         } else if (response.startsWith("public-key-not-found:")) {
             String username = response.substring("public-key-not-found:".length());
             System.err.println("[KEYMANAGER] Public key not found for: " + username);
-            
-            // Complete pending future with null
-            CompletableFuture<BigInteger[]> pendingRequest = pendingRequests.remove(username);
-            if (pendingRequest != null) {
-                pendingRequest.complete(null);
-            }
+            publicKeyCache.remove(username);
+            PublicKeyStore.remove(username);
+            completeNotFound(username);
         } else {
             System.err.println("[KEYMANAGER] Invalid public key response format: " + response);
         }
     }
+
+    // Completes a pending request with null, the key is treated as not found
+    private static void completeNotFound(String username) {
+        CompletableFuture<BigInteger[]> pendingRequest = pendingRequests.remove(username);
+        if (pendingRequest != null) {
+            pendingRequest.complete(null);
+        }
+    }
     
     /**
      * Get cached public key (synchronous, only returns if already cached)
@@ -143,11 +324,14 @@ public class PublicKeyManager {
     }
     
     /**
-     * Clear all cached keys (for logout/cleanup)
+     * Clear all cached keys (for logout/cleanup), the keys on disk stay
      */
     public static void clearCache() {
         publicKeyCache.clear();
         pendingRequests.clear();
+        synchronized (queuedLookups) {
+            queuedLookups.clear();
+        }
         System.out.println("[KEYMANAGER] Cache cleared");
     }
     
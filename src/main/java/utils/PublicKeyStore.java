@@ -0,0 +1,179 @@
+package utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Public keys of other users on disk (UserData/publickeys.properties), so a restarted client
+ * can encrypt the first message without asking the server.
+ * Per user: the key as the server sends it ("n:e" or "ed25519:x25519:ec"), its SHA-256 fingerprint
+ * and when it was fetched. The file is read on first use and written in the background shortly
+ * after a change. Entries whose key doesn't match the fingerprint (edited or damaged file) are
+ * dropped when reading, so the key is fetched from the server again. Keys older than -Dmchat.keys.ttl (seconds, default one day) are still used, but
+ * PublicKeyManager asks the server again and reports if the fingerprint changed.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class PublicKeyStore {
+    private static final String STORE_DIR = "UserData";
+    private static final String STORE_FILE = "publickeys.properties";
+    private static final long TTL_MS = Long.getLong("mchat.keys.ttl", 24 * 60 * 60) * 1000;
+    private static final long SAVE_DELAY_MS = 500; // Keys of one bulk response end up in one write
+
+    private static Properties keys; // Guarded by the class, null until first use
+    private static boolean saveScheduled; // Guarded by the class
+
+    private PublicKeyStore() {
+    }
+
+    /**
+     * Stored key of a user in the server's format, or null
+     */
+    public static synchronized String getKey(String username) {
+        return load().getProperty(username + ".key");
+    }
+
+    public static synchronized String getFingerprint(String username) {
+        return load().getProperty(username + ".fingerprint");
+    }
+
+    /**
+     * True if the stored key of the user is older than the TTL and should be fetched again
+     */
+    public static synchronized boolean isStale(String username) {
+        String fetched = load().getProperty(username + ".fetched");
+        try {
+            return fetched == null || System.currentTimeMillis() - Long.parseLong(fetched) > TTL_MS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Stores a key that was just received from the server
+     * @return The previous fingerprint if the key changed, null if it is new or the same
+     */
+    public static synchronized String put(String username, String key) {
+        Properties store = load();
+        String fingerprint = fingerprint(key);
+        String previous = store.getProperty(username + ".fingerprint");
+        store.setProperty(username + ".key", key);
+        store.setProperty(username + ".fingerprint", fingerprint);
+        store.setProperty(username + ".fetched", Long.toString(System.currentTimeMillis()));
+        scheduleSave();
+        return previous != null && !previous.equals(fingerprint) ? previous : null;
+    }
+
+    public static synchronized void remove(String username) {
+        Properties store = load();
+        if (store.remove(username + ".key") != null) {
+            store.remove(username + ".fingerprint");
+            store.remove(username + ".fetched");
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Reads the file in the background, so the first lookup doesn't have to
+     */
+    public static void preload() {
+        TaskExecutors.run(() -> {
+            synchronized (PublicKeyStore.class) {
+                load();
+            }
+        });
+    }
+
+    /**
+     * SHA-256 of the key text, hex
+     */
+    public static String fingerprint(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static Properties load() {
+        if (keys == null) {
+            keys = new Properties();
+            File storeFile = new File(STORE_DIR, STORE_FILE);
+            if (storeFile.exists()) {
+                try (FileInputStream fis = new FileInputStream(storeFile)) {
+                    keys.load(fis);
+                    dropUnverified();
+                    System.out.println("[KEYSTORE] Loaded " + keys.size() / 3 + " public keys");
+                } catch (IOException e) {
+                    System.err.println("[KEYSTORE] Could not read public keys: " + e.getMessage());
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Removes entries whose key doesn't match the stored fingerprint
+    private static void dropUnverified() {
+        boolean dropped = false;
+        for (String name : keys.stringPropertyNames()) {
+            if (!name.endsWith(".key")) {
+                continue;
+            }
+            String username = name.substring(0, name.length() - ".key".length());
+            if (!fingerprint(keys.getProperty(name)).equals(keys.getProperty(username + ".fingerprint"))) {
+                System.err.println("[KEYSTORE] Stored public key of " + username + " doesn't match its fingerprint, dropped");
+                keys.remove(name);
+                keys.remove(username + ".fingerprint");
+                keys.remove(username + ".fetched");
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            scheduleSave();
+        }
+    }
+
+    private static void scheduleSave() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            CompletableFuture.runAsync(PublicKeyStore::save,
+                    CompletableFuture.delayedExecutor(SAVE_DELAY_MS, TimeUnit.MILLISECONDS, TaskExecutors.io()));
+        }
+    }
+
+    private static void save() {
+        Properties copy;
+        synchronized (PublicKeyStore.class) {
+            saveScheduled = false;
+            copy = new Properties();
+            copy.putAll(keys);
+        }
+        try {
+            Path storeDir = Paths.get(STORE_DIR);
+            if (!Files.exists(storeDir)) {
+                Files.createDirectories(storeDir);
+            }
+            // Write a temporary file and replace the old one, a crash never leaves half a file
+            Path temp = storeDir.resolve(STORE_FILE + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile())) {
+                copy.store(fos, "Public keys of chat partners - Updated on " + new java.util.Date());
+            }
+            Files.move(temp, storeDir.resolve(STORE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[KEYSTORE] Could not save public keys: " + e.getMessage());
+        }
+    }
+}
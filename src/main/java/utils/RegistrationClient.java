@@ -1,5 +1,8 @@
 package utils;
 
+import Crypto.ECKey;
+import WebSocketHandling.CompressionStats;
+import WebSocketHandling.WebSocketConnector;
 import jakarta.websocket.*;
 import jakarta.websocket.ContainerProvider;
 import java.net.URI;
@@ -17,6 +20,7 @@ public class RegistrationClient {
     private CountDownLatch latch;
     private String result;
     private boolean connected = false;
+    private final CompressionStats compressionStats = new CompressionStats();
 
     public RegistrationClient() {
         this.latch = new CountDownLatch(1);
@@ -104,6 +108,34 @@ public class RegistrationClient {
         }
     }
 
+    /**
+     * Registriert einen neuen Benutzer mit EC-Schlüsseln (Ed25519 + X25519) auf dem Server
+     * Format: "register:username:ed25519Hex:x25519Hex:ec"
+     */
+    public ServerRegistrationResult registerUser(String username, ECKey key) {
+        if (!connected) {
+            return new ServerRegistrationResult(false, "Not connected to server", null, null, null);
+        }
+
+        try {
+            latch = new CountDownLatch(1);
+            String registrationMessage = "register:" + username + ":" +
+                key.getSigningPublicKeyHex() + ":" + key.getAgreementPublicKeyHex() + ":ec";
+            session.getBasicRemote().sendText(registrationMessage);
+
+            // Warten auf Antwort (max 10 Sekunden)
+            if (latch.await(10, TimeUnit.SECONDS)) {
+                boolean success = "register-success".equals(result);
+                return new ServerRegistrationResult(success, success ? "Registration successful" : (result != null ? result : "Unknown error"), null, null, null);
+            } else {
+                return new ServerRegistrationResult(false, "Timeout waiting for server response", null, null, null);
+            }
+        } catch (Exception e) {
+            System.err.println("[REGISTRATION] Error registering user: " + e.getMessage());
+            return new ServerRegistrationResult(false, "Error: " + e.getMessage(), null, null, null);
+        }
+    }
+
     /**
      * Ergebnis einer Server-Registrierung
      */
@@ -129,7 +161,23 @@ public class RegistrationClient {
     public boolean connect(String serverUri) {
         try {
             WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            container.connectToServer(this, URI.create(serverUri));
+            WebSocketConnector.connect(container, new Endpoint() {
+                @Override
+                public void onOpen(Session session, EndpointConfig config) {
+                    session.addMessageHandler(String.class, (MessageHandler.Whole<String>) RegistrationClient.this::onMessage);
+                    RegistrationClient.this.onOpen(session);
+                }
+
+                @Override
+                public void onClose(Session session, CloseReason closeReason) {
+                    RegistrationClient.this.onClose(session);
+                }
+
+                @Override
+                public void onError(Session session, Throwable throwable) {
+                    RegistrationClient.this.onError(session, throwable);
+                }
+            }, URI.create(serverUri), compressionStats);
             
             // Warten bis Verbindung hergestellt ist
             Thread.sleep(1000);
@@ -153,6 +201,10 @@ public class RegistrationClient {
         }
     }
 
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
     public String getLastResult() {
         return result;
     }
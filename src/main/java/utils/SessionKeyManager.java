@@ -0,0 +1,301 @@
+package utils;
+
+import Crypto.AESCipher;
+import Crypto.ChatCompression;
+import Crypto.ECKey;
+import Crypto.KeyType;
+import Crypto.MessageKey;
+import Crypto.RSAKey;
+import model.Message;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Manages symmetric per-conversation session keys.
+ * The first message to a chat partner carries a fresh AES key wrapped with the partner's
+ * public key (RSA, or X25519 for EC users), all following messages reuse that key until the message count or age limit
+ * triggers a rekey. Keys are kept in bounded LRU caches, similar to the PublicKeyManager cache.
+ * Format: "SES1:" + Base64(version | flags | keyId(8) | wrappedKeyLength(2) | wrappedKey | iv | ciphertext+tag)
+ * version: 2 = RSA keys wrapped with OAEP, 1 = raw RSA (only read, from older clients)
+ * flags: ChatCompression.FLAG_DEFLATE if the plaintext was deflated before encryption
+ * A receiver that doesn't know the key of a message (the first message got lost, or it restarted since)
+ * answers with "session-rekey:<keyId>:<messageId>". The sender then starts a new session and sends
+ * that message again, the recently sent texts are kept for this (-Dmchat.session.resendHistory, default 256).
+ * @author Max Staneker, Mia Schienagel
+ * @version 1.0
+ */
+public class SessionKeyManager {
+    public static final String SESSION_PREFIX = "SES1:";
+    private static final byte SESSION_VERSION = 2;
+    private static final byte LEGACY_SESSION_VERSION = 1;
+    private static final int KEY_ID_LENGTH = 8;
+    private static final int MAX_CACHED_SESSIONS = 256;
+    public static final String REKEY_PREFIX = "session-rekey:";
+
+    // Rekey policy, whatever is reached first
+    private static volatile int maxMessagesPerKey = Integer.getInteger("mchat.session.maxMessages", 500);
+    private static volatile long maxKeyAgeMillis = Long.getLong("mchat.session.maxAgeMillis", 30 * 60 * 1000L);
+    private static volatile boolean enabled = !"false".equals(System.getProperty("mchat.session.enabled"));
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, OutboundSession> outboundSessions = lruCache(MAX_CACHED_SESSIONS); // partner -> our sending key
+    private static final Map<String, byte[]> inboundKeys = lruCache(MAX_CACHED_SESSIONS); // sender + ":" + keyId -> key
+    private static final Map<String, SentMessage> sentMessages = lruCache(Integer.getInteger("mchat.session.resendHistory", 256)); // partner + ":" + messageId
+
+    /**
+     * Sending state for one chat partner
+     */
+    private static class OutboundSession {
+        final long keyId;
+        final byte[] key;
+        final byte[] wrappedKey; // Only sent with the first message of the session
+        final long createdAt;
+        int messageCount;
+
+        OutboundSession(long keyId, byte[] key, byte[] wrappedKey) {
+            this.keyId = keyId;
+            this.key = key;
+            this.wrappedKey = wrappedKey;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        boolean isExpired() {
+            return messageCount >= maxMessagesPerKey || System.currentTimeMillis() - createdAt >= maxKeyAgeMillis;
+        }
+    }
+
+    // A message that can be sent again if the partner asks for a rekey
+    private static class SentMessage {
+        final long keyId;
+        final String plaintext;
+
+        SentMessage(long keyId, String plaintext) {
+            this.keyId = keyId;
+            this.plaintext = plaintext;
+        }
+    }
+
+    private static <V> Map<String, V> lruCache(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Whether messages should be sent with session keys. Disabled when one of the per-chunk
+     * RSA formats is selected, since peers that need those can't read session messages either.
+     */
+    public static boolean isEnabled() {
+        return enabled && RSAKey.getWireFormat() == RSAKey.WireFormat.ENVELOPE;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        SessionKeyManager.enabled = enabled;
+    }
+
+    public static void setRekeyPolicy(int maxMessages, long maxAgeMillis) {
+        maxMessagesPerKey = maxMessages;
+        maxKeyAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Encrypt a message for a chat partner with the current session key.
+     * Creates (and wraps) a new key for the first message or when a rekey is due.
+     * @param partner The chat partner
+     * @param plaintext The message text
+     * @param recipientKey The partner's public key from PublicKeyManager, {n, e} or {u} for EC
+     * @return The "SES1:" encoded message
+     */
+    public static String encrypt(String partner, String plaintext, BigInteger[] recipientKey) {
+        return encrypt(partner, 0, plaintext, recipientKey);
+    }
+
+    /**
+     * Like encrypt(partner, plaintext, recipientKey), but remembers the text under the id of the
+     * message it is sent in, so it can be sent again if the partner can't read it
+     * @param messageId Id of the Message that will carry the result, 0 to not remember it
+     */
+    public static String encrypt(String partner, long messageId, String plaintext, BigInteger[] recipientKey) {
+        byte[] wrappedKey;
+        long keyId;
+        byte[] key;
+        synchronized (outboundSessions) {
+            OutboundSession session = outboundSessions.get(partner);
+            boolean newSession = session == null || session.isExpired();
+            if (newSession) {
+                byte[] freshKey = AESCipher.newKey();
+                byte[] wrapped = KeyType.forPublicKey(recipientKey) == KeyType.EC
+                        ? ECKey.wrapKey(freshKey, recipientKey[0])
+                        : RSAKey.wrapKey(freshKey, recipientKey[0], recipientKey[1]);
+                session = new OutboundSession(random.nextLong(), freshKey, wrapped);
+                outboundSessions.put(partner, session);
+                System.out.println("[SESSIONKEYS] New session key for: " + partner);
+            }
+            session.messageCount++;
+            wrappedKey = newSession ? session.wrappedKey : new byte[0];
+            keyId = session.keyId;
+            key = session.key;
+        }
+        if (messageId != 0) {
+            sentMessages.put(partner + ":" + messageId, new SentMessage(keyId, plaintext));
+        }
+
+        byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ChatCompression.compress(bytes);
+        byte flags = compressed != null ? ChatCompression.FLAG_DEFLATE : 0;
+        byte[] header = ByteBuffer.allocate(2 + KEY_ID_LENGTH).put(SESSION_VERSION).put(flags).putLong(keyId).array();
+        byte[] iv = AESCipher.newIv();
+        byte[] ciphertext = AESCipher.encrypt(key, iv, compressed != null ? compressed : bytes, header);
+
+        ByteBuffer message = ByteBuffer.allocate(header.length + 2 + wrappedKey.length + iv.length + ciphertext.length);
+        message.put(header);
+        message.putShort((short) wrappedKey.length);
+        message.put(wrappedKey);
+        message.put(iv);
+        message.put(ciphertext);
+        return SESSION_PREFIX + Base64.getEncoder().encodeToString(message.array());
+    }
+
+    /**
+     * Decrypt a message from a chat partner.
+     * Session messages use the cached key (the private key is only needed when a new key arrives),
+     * everything else is handed to decryptLongString of our own key.
+     * @param sender The sender of the message
+     * @param ciphertext The message content
+     * @param ownKey Our own RSA or EC key
+     * @return The decrypted text
+     */
+    public static String decrypt(String sender, String ciphertext, MessageKey ownKey) {
+        if (!ciphertext.startsWith(SESSION_PREFIX)) {
+            return ownKey.decryptLongString(ciphertext);
+        }
+
+        byte[] message = Base64.getDecoder().decode(ciphertext.substring(SESSION_PREFIX.length()));
+        int wrappedOffset = 2 + KEY_ID_LENGTH + 2;
+        if (message.length < wrappedOffset || (message[0] != SESSION_VERSION && message[0] != LEGACY_SESSION_VERSION)) {
+            throw new IllegalArgumentException("Unsupported session message version");
+        }
+        byte[] header = Arrays.copyOfRange(message, 0, 2 + KEY_ID_LENGTH);
+        if ((header[1] & ~ChatCompression.FLAG_DEFLATE) != 0) {
+            throw new IllegalArgumentException("Unsupported session message flags");
+        }
+        long keyId = ByteBuffer.wrap(message, 2, KEY_ID_LENGTH).getLong();
+        int wrappedLength = ((message[2 + KEY_ID_LENGTH] & 0xff) << 8) | (message[3 + KEY_ID_LENGTH] & 0xff);
+        int ivOffset = wrappedOffset + wrappedLength;
+        int dataOffset = ivOffset + AESCipher.IV_LENGTH;
+        if (dataOffset > message.length) {
+            throw new IllegalArgumentException("Truncated session message");
+        }
+
+        String cacheKey = sender + ":" + Long.toHexString(keyId);
+        byte[] key;
+        if (wrappedLength > 0) {
+            // First message of a new session, the only place where the private key is needed
+            key = message[0] == LEGACY_SESSION_VERSION
+                    ? ownKey.unwrapLegacyKey(message, wrappedOffset, wrappedLength)
+                    : ownKey.unwrapKey(message, wrappedOffset, wrappedLength);
+            inboundKeys.put(cacheKey, key);
+            System.out.println("[SESSIONKEYS] Received new session key from: " + sender);
+        } else {
+            key = inboundKeys.get(cacheKey);
+            if (key == null) {
+                throw new IllegalStateException("Unknown session key from " + sender);
+            }
+        }
+
+        byte[] iv = Arrays.copyOfRange(message, ivOffset, dataOffset);
+        byte[] plaintext = AESCipher.decrypt(key, iv, message, dataOffset, message.length - dataOffset, header);
+        return ChatCompression.toText(plaintext, 0, plaintext.length, header[1]);
+    }
+
+    /**
+     * Request to send back when a session message can't be decrypted because its key never arrived
+     * @param message The message from the partner
+     * @return "session-rekey:<keyId>:<messageId>", or null if the message failed for another reason
+     */
+    public static String rekeyRequest(Message message) {
+        String content = message.getContent();
+        if (content == null || !content.startsWith(SESSION_PREFIX)) {
+            return null;
+        }
+        byte[] header;
+        try {
+            header = Base64.getDecoder().decode(content.substring(SESSION_PREFIX.length(), Math.min(content.length(),
+                    SESSION_PREFIX.length() + 16))); // The first 12 bytes hold version, flags, keyId and wrapped key length
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (header.length < 4 + KEY_ID_LENGTH || (header[0] != SESSION_VERSION && header[0] != LEGACY_SESSION_VERSION)
+                || header[2 + KEY_ID_LENGTH] != 0 || header[3 + KEY_ID_LENGTH] != 0) {
+            return null; // Carried its key, so the key was not the problem
+        }
+        long keyId = ByteBuffer.wrap(header, 2, KEY_ID_LENGTH).getLong();
+        if (inboundKeys.containsKey(message.getSender() + ":" + Long.toHexString(keyId))) {
+            return null;
+        }
+        System.out.println("[SESSIONKEYS] Unknown session key from " + message.getSender() + ", requesting a rekey");
+        return REKEY_PREFIX + Long.toHexString(keyId) + ":" + Long.toHexString(message.getId());
+    }
+
+    /**
+     * Handle a "session-rekey:" request of a partner. Drops our session with the partner if it still
+     * uses the key the partner doesn't have, so the next message carries a new one.
+     * @return The text of the message the partner couldn't read, to send it again, or null if it is no longer known
+     */
+    public static String handleRekeyRequest(String partner, String request) {
+        String[] parts = request.substring(REKEY_PREFIX.length()).split(":");
+        long keyId;
+        long messageId;
+        try {
+            keyId = Long.parseUnsignedLong(parts[0], 16);
+            messageId = parts.length > 1 ? Long.parseUnsignedLong(parts[1], 16) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println("[SESSIONKEYS] Invalid rekey request from " + partner + ": " + request);
+            return null;
+        }
+        synchronized (outboundSessions) {
+            OutboundSession session = outboundSessions.get(partner);
+            if (session != null && session.keyId == keyId) {
+                outboundSessions.remove(partner);
+                System.out.println("[SESSIONKEYS] " + partner + " lost our session key, starting a new session");
+            }
+        }
+        SentMessage sent = sentMessages.remove(partner + ":" + messageId);
+        return sent != null && sent.keyId == keyId ? sent.plaintext : null;
+    }
+
+    /**
+     * Forget the sending key for a partner, the next message starts a new session
+     */
+    public static void invalidate(String partner) {
+        outboundSessions.remove(partner);
+    }
+
+    /**
+     * Clear all session keys (for logout/cleanup)
+     */
+    public static void clearCache() {
+        outboundSessions.clear();
+        inboundKeys.clear();
+        sentMessages.clear();
+        System.out.println("[SESSIONKEYS] Cache cleared");
+    }
+
+    /**
+     * Get cache statistics
+     */
+    public static void printCacheStats() {
+        System.out.println("[SESSIONKEYS] Outbound sessions: " + outboundSessions.size() +
+                          ", Inbound keys: " + inboundKeys.size());
+    }
+}
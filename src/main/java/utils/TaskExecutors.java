@@ -0,0 +1,63 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shared executor for blocking client work: public key fetches, registration round trips,
+ * file I/O and reconnects. These tasks spend most of their time waiting, so by default every
+ * task gets its own virtual thread (Java 21+). On older runtimes, or with
+ * -Dmchat.executor=platform, a pool of platform threads is used instead
+ * (size -Dmchat.executor.threads, default 32) to compare both models.
+ * CPU-heavy work (prime search, chunk encryption) keeps its own pools.
+ * @author Max Staneker, Mia Schienagel
+ * @version 1.0
+ */
+public class TaskExecutors {
+    private static final String MODE = System.getProperty("mchat.executor", "virtual");
+    private static final int PLATFORM_THREADS = Integer.getInteger("mchat.executor.threads", 32);
+
+    private static final ExecutorService io = createExecutor();
+
+    private TaskExecutors() {
+    }
+
+    private static ExecutorService createExecutor() {
+        if ("virtual".equals(MODE)) {
+            try {
+                // Looked up reflectively so the client still compiles and runs on Java 17
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println("[EXECUTOR] Using virtual threads for blocking tasks");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("[EXECUTOR] Virtual threads not available on Java " + Runtime.version().feature() + ", using platform threads");
+            }
+        }
+        System.out.println("[EXECUTOR] Using " + PLATFORM_THREADS + " platform threads for blocking tasks");
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(PLATFORM_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "io-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor for blocking tasks, also usable for the *Async variants of CompletableFuture
+     */
+    public static ExecutorService io() {
+        return io;
+    }
+
+    public static CompletableFuture<Void> run(Runnable task) {
+        return CompletableFuture.runAsync(task, io);
+    }
+
+    public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, io);
+    }
+}
@@ -0,0 +1,172 @@
+package WebSocketHandling;
+
+import Crypto.RSAKey;
+import model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Round trips through the binary frame layout, including the varint edge cases
+ * @author Max Staneker, Mia Schienagel
+ */
+public class BinaryFrameCodecTest {
+
+    private static Message roundTrip(Message message) {
+        return BinaryFrameCodec.decode(BinaryFrameCodec.encode(message));
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getRecipient(), actual.getRecipient());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getSeq(), actual.getSeq());
+    }
+
+    @Test
+    public void textMessage() {
+        Message message = new Message("alice", "Hallo B\u00f6b, wie geht's?", "bob");
+        ByteBuffer frame = BinaryFrameCodec.encode(message);
+        assertEquals(BinaryFrameCodec.TYPE_MESSAGE, frame.get(0));
+        assertSameMessage(message, BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void envelopeIsCarriedAsRawBytes() {
+        byte[] envelope = new byte[300];
+        for (int i = 0; i < envelope.length; i++) {
+            envelope[i] = (byte) i;
+        }
+        String content = RSAKey.ENVELOPE_PREFIX + Base64.getEncoder().encodeToString(envelope);
+        Message message = new Message("alice", content, "bob");
+        ByteBuffer frame = BinaryFrameCodec.encode(message);
+        assertEquals(1, frame.get(1)); // Content kind ENV1
+        // Raw bytes plus a small header instead of Base64
+        assertTrue(frame.remaining() < envelope.length + 30);
+        assertSameMessage(message, BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void prefixWithoutBase64StaysText() {
+        Message message = new Message("alice", RSAKey.ENVELOPE_PREFIX + "not base64!", "bob");
+        ByteBuffer frame = BinaryFrameCodec.encode(message);
+        assertEquals(0, frame.get(1));
+        assertSameMessage(message, BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void missingRecipient() {
+        Message message = new Message("alice", "an alle");
+        Message decoded = roundTrip(message);
+        assertNull(decoded.getRecipient());
+        assertSameMessage(message, decoded);
+    }
+
+    @Test
+    public void sequencedMessage() {
+        Message message = new Message("alice", "nummeriert", "bob");
+        message.setId(Long.MIN_VALUE);
+        message.setSeq(42);
+        ByteBuffer frame = BinaryFrameCodec.encode(message);
+        assertEquals(BinaryFrameCodec.TYPE_SEQUENCED_MESSAGE, frame.get(0));
+        assertSameMessage(message, BinaryFrameCodec.decode(frame));
+
+        message.setId(-1);
+        message.setSeq(Long.MAX_VALUE);
+        assertSameMessage(message, roundTrip(message));
+    }
+
+    @Test
+    public void varintEdges() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        for (long value : values) {
+            Message message = new Message("alice", "t", "bob");
+            message.setTimestamp(value);
+            message.setId(value);
+            message.setSeq(value);
+            assertSameMessage(message, roundTrip(message));
+        }
+    }
+
+    @Test
+    public void varintLengthBoundaries() {
+        // 127 fits into one length byte, 128 needs two
+        Message shortMessage = new Message("alice", "x".repeat(127), "bob");
+        Message longMessage = new Message("alice", "x".repeat(128), "bob");
+        shortMessage.setTimestamp(0);
+        longMessage.setTimestamp(0);
+        assertEquals(1, BinaryFrameCodec.encode(longMessage).remaining() - BinaryFrameCodec.encode(shortMessage).remaining() - 1);
+        assertSameMessage(shortMessage, roundTrip(shortMessage));
+        assertSameMessage(longMessage, roundTrip(longMessage));
+    }
+
+    @Test
+    public void malformedVarint() {
+        // Type, content kind, empty sender and recipient, then a timestamp that never ends
+        ByteBuffer frame = ByteBuffer.allocate(16);
+        frame.put(BinaryFrameCodec.TYPE_MESSAGE).put((byte) 0).put((byte) 0).put((byte) 0);
+        for (int i = 0; i < 11; i++) {
+            frame.put((byte) 0x80);
+        }
+        frame.put((byte) 0).flip();
+        assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void truncatedHeader() {
+        ByteBuffer frame = BinaryFrameCodec.encode(new Message("alice", "abgeschnitten", "bob"));
+        frame.limit(5); // Inside the sender name
+        assertThrows(BufferUnderflowException.class, () -> BinaryFrameCodec.decodeHeader(frame));
+    }
+
+    @Test
+    public void contentLongerThanFrame() {
+        ByteBuffer frame = BinaryFrameCodec.encode(new Message("alice", "abgeschnitten", "bob"));
+        frame.limit(frame.limit() - 3);
+        assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void unknownType() {
+        ByteBuffer frame = BinaryFrameCodec.encode(new Message("alice", "x", "bob"));
+        frame.put(0, (byte) 9);
+        assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.decode(frame));
+    }
+
+    @Test
+    public void batch() {
+        Message first = new Message("alice", "eins", "bob");
+        first.setId(Message.newId());
+        first.setSeq(1);
+        Message second = new Message("alice", RSAKey.ENVELOPE_PREFIX + Base64.getEncoder().encodeToString(new byte[]{1, 2, 3}), "bob");
+        second.setId(Message.newId());
+        second.setSeq(2);
+
+        ByteBuffer frame = BinaryFrameCodec.encodeBatch(List.of(first, second));
+        assertEquals(BinaryFrameCodec.TYPE_BATCH, frame.get(0));
+        List<Message> decoded = BinaryFrameCodec.decodeAll(frame);
+        assertEquals(2, decoded.size());
+        assertSameMessage(first, decoded.get(0));
+        assertSameMessage(second, decoded.get(1));
+
+        assertEquals(0, BinaryFrameCodec.decodeAll(BinaryFrameCodec.encodeBatch(List.of())).size());
+    }
+
+    @Test
+    public void decodeAllSingleMessage() {
+        Message message = new Message("alice", "einzeln", "bob");
+        List<Message> decoded = BinaryFrameCodec.decodeAll(BinaryFrameCodec.encode(message));
+        assertEquals(1, decoded.size());
+        assertSameMessage(message, decoded.get(0));
+    }
+}
@@ -0,0 +1,262 @@
+package WebSocketHandling;
+
+import Authentication.Authentication;
+import Crypto.ECKey;
+import model.Message;
+import model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * A real ChatClientEndpoint (bob) against LocalChatServer, alice sends with a raw TestWebSocketClient.
+ * Covers the DeliveryTracker (gaps filled by a sync batch, duplicates dropped, restarted servers)
+ * and session resumption with tickets.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class ChatClientEndpointTest {
+    private static final int TIMEOUT_SECONDS = 5;
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private LocalChatServer server;
+    private ECKey aliceKey;
+    private ECKey bobKey;
+    private User aliceUser;
+    private User bobUser;
+    private TestWebSocketClient alice;
+    private ChatClientEndpoint bob;
+    private RecordingListener bobListener;
+
+    // Chat messages and notifications of the endpoint
+    private static class RecordingListener implements MessageListener {
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> onlineLists = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onNewMessage(Message message) {
+            if (message.getRecipient() != null) { // Not one of the wrapped notifications
+                messages.add(message);
+            }
+        }
+
+        @Override
+        public void onOnlineUsers(String onlineUsers) {
+            onlineLists.add(onlineUsers);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        aliceKey = new ECKey();
+        bobKey = new ECKey();
+        server = startServer();
+        alice = loginAlice(server);
+        bob = new ChatClientEndpoint(new Authentication(bobUser));
+        bobListener = new RecordingListener();
+        bob.setMessageListener(bobListener);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+    }
+
+    // Server with alice and bob registered, with the same keys on every server
+    private LocalChatServer startServer() throws IOException {
+        return startServer(300);
+    }
+
+    private LocalChatServer startServer(long ticketLifetimeSeconds) throws IOException {
+        LocalChatServer started = new LocalChatServer(0, ticketLifetimeSeconds);
+        started.start();
+        resources.add(started::stop);
+        try (TestWebSocketClient registration = new TestWebSocketClient(started.getPort(), true)) {
+            aliceUser = registration.register("alice", aliceKey);
+            bobUser = registration.register("bob", bobKey);
+        }
+        return started;
+    }
+
+    private TestWebSocketClient loginAlice(LocalChatServer target) throws IOException {
+        TestWebSocketClient client = new TestWebSocketClient(target.getPort(), true);
+        resources.add(client);
+        client.login(aliceUser);
+        return client;
+    }
+
+    // Connects bob's endpoint and waits until it is authenticated and got the online list
+    private EndpointConnection connectBob(LocalChatServer target) throws Exception {
+        EndpointConnection connection = new EndpointConnection(bob, target.getPort());
+        resources.add(connection);
+        assertNotNull(bobListener.onlineLists.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), "bob was not logged in");
+        return connection;
+    }
+
+    private void aliceSends(String content) throws IOException {
+        Message message = new Message("alice", content, "bob");
+        message.setId(Message.newId());
+        alice.sendBinary(BinaryFrameCodec.encode(message));
+    }
+
+    // Contents of the next count messages bob gets, in arrival order
+    private List<String> bobReceives(int count) throws InterruptedException {
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = bobListener.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(message, "only got " + contents);
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    private void assertBobReceivesNothingMore() throws InterruptedException {
+        assertNull(bobListener.messages.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    private static List<String> sorted(List<String> contents) {
+        List<String> copy = new ArrayList<>(contents);
+        copy.sort(null);
+        return copy;
+    }
+
+    @Test
+    public void messagesArriveInOrder() throws Exception {
+        connectBob(server);
+        aliceSends("m1");
+        aliceSends("m2");
+        aliceSends("m3");
+        assertEquals(List.of("m1", "m2", "m3"), bobReceives(3));
+        assertBobReceivesNothingMore();
+    }
+
+    @Test
+    public void gapIsFilledBySyncBatch() throws Exception {
+        EndpointConnection connection = connectBob(server);
+        connection.dropNext(message -> message.getSeq() == 2);
+        aliceSends("m1");
+        aliceSends("m2"); // Lost on the way
+        aliceSends("m3");
+
+        // m3 reveals the gap, the batch brings m2 and m3 again, m3 is not shown twice
+        assertEquals(List.of("m1", "m2", "m3"), sorted(bobReceives(3)));
+        assertBobReceivesNothingMore();
+        assertTrue(connection.getSent().contains("sync-since:alice:1"), "sent " + connection.getSent());
+    }
+
+    @Test
+    public void duplicateIsDropped() throws Exception {
+        EndpointConnection connection = connectBob(server);
+        connection.replayNext(message -> message.getSeq() == 1);
+        aliceSends("m1");
+        aliceSends("m2");
+        assertEquals(List.of("m1", "m2"), bobReceives(2));
+        assertBobReceivesNothingMore();
+    }
+
+    @Test
+    public void restartedServerStartsOver() throws Exception {
+        EndpointConnection connection = connectBob(server);
+        for (int i = 1; i <= 5; i++) {
+            aliceSends("m" + i);
+        }
+        assertEquals(5, bobReceives(5).size());
+        connection.close();
+        alice.close();
+        server.stop();
+
+        // New server instance, new epoch, numbers start at 1 again
+        LocalChatServer restarted = startServer();
+        alice = loginAlice(restarted);
+        connection = connectBob(restarted);
+        connection.dropNext(message -> message.getSeq() == 2);
+        aliceSends("n1");
+        aliceSends("n2");
+        aliceSends("n3");
+
+        // With the old positions n1 and n3 would be below #5 and the gap would go unnoticed
+        assertEquals(List.of("n1", "n2", "n3"), sorted(bobReceives(3)));
+        assertBobReceivesNothingMore();
+        assertTrue(connection.getSent().contains("sync-since:alice:1"), "sent " + connection.getSent());
+        assertTrue(connection.getSent().stream().noneMatch(frame -> frame.startsWith("sync-since:alice:5")));
+    }
+
+    @Test
+    public void ticketIsUsedOnReconnect() throws Exception {
+        connectBob(server).close();
+        EndpointConnection connection = connectBob(server);
+        assertTrue(connection.getSent().get(0).startsWith("resume:"), "sent " + connection.getSent());
+        assertTrue(connection.getSent().stream().noneMatch(frame -> frame.equals("auth-request")));
+    }
+
+    @Test
+    public void reusedTicketIsRejected() throws Exception {
+        connectBob(server).close();
+        EndpointConnection connection = connectBob(server);
+        String resume = connection.getSent().get(0);
+        assertTrue(resume.startsWith("resume:"));
+
+        // Someone who recorded the frame can't log in with it
+        try (TestWebSocketClient replay = new TestWebSocketClient(server.getPort(), true)) {
+            replay.sendText(resume);
+            assertEquals("resume-failure", replay.awaitText("resume-failure"));
+        }
+    }
+
+    @Test
+    public void rejectedTicketFallsBackToChallenge() throws Exception {
+        connectBob(server).close();
+        // Another server doesn't know the ticket key of this one
+        EndpointConnection connection = connectBob(startServer());
+        assertTrue(connection.getSent().get(0).startsWith("resume:"));
+        assertTrue(connection.getSent().contains("auth-request"), "sent " + connection.getSent());
+    }
+
+    @Test
+    public void expiredTicket() throws Exception {
+        LocalChatServer shortLived = startServer(1);
+        try (TestWebSocketClient raw = new TestWebSocketClient(shortLived.getPort(), true)) {
+            raw.login(bobUser);
+            String ticket = raw.awaitText("resume-ticket:").split(":", 3)[2];
+            connectBob(shortLived).close();
+            Thread.sleep(1200);
+
+            // The server rejects it and the endpoint doesn't even try
+            try (TestWebSocketClient late = new TestWebSocketClient(shortLived.getPort(), true)) {
+                late.sendText("resume:" + ticket + ":bob");
+                assertEquals("resume-failure", late.awaitText("resume-failure"));
+            }
+            EndpointConnection connection = connectBob(shortLived);
+            assertEquals("auth-request", connection.getSent().get(0));
+        }
+    }
+
+    @Test
+    public void malformedTicketIsIgnored() throws Exception {
+        String[] malformed = {"resume-ticket:abc", "resume-ticket:", "resume-ticket:60:", "resume-ticket:x:abc", "resume-ticket:-5:abc"};
+        for (String frame : malformed) {
+            EndpointConnection connection = connectBob(server);
+            connection.inject(frame);
+            connection.inject("online-users:[]"); // Handled after the ticket
+            assertNotNull(bobListener.onlineLists.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            connection.close();
+
+            connection = connectBob(server);
+            assertEquals("auth-request", connection.getSent().get(0), frame);
+            connection.close();
+        }
+    }
+}
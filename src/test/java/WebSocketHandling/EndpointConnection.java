@@ -0,0 +1,197 @@
+package WebSocketHandling;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import model.Message;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/*
+ * Connects a ChatClientEndpoint to a LocalChatServer without a WebSocket container.
+ * The Session handed to the endpoint is a proxy on a TestWebSocketClient, received frames are passed
+ * to onMessage / onBinaryMessage from a reader thread like a container would. To simulate a lossy or
+ * repeating server, the next binary chat message matching a condition can be dropped or handed over twice.
+ * Everything the endpoint sends is recorded (chat messages by their content).
+ * @author Max Staneker, Mia Schienagel
+ */
+public class EndpointConnection implements AutoCloseable {
+    private final ChatClientEndpoint endpoint;
+    private final TestWebSocketClient client;
+    private final Session session;
+    private final Thread reader;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private volatile Predicate<Message> dropNext;
+    private volatile Predicate<Message> replayNext;
+
+    public EndpointConnection(ChatClientEndpoint endpoint, int port) throws IOException {
+        this.endpoint = endpoint;
+        this.client = new TestWebSocketClient(port, true);
+        this.session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> onSessionCall(proxy, method, args));
+        this.reader = new Thread(this::readLoop, "endpoint-connection-reader");
+        reader.setDaemon(true);
+        endpoint.onOpen(session);
+        reader.start();
+    }
+
+    /**
+     * The next binary chat message matching the condition doesn't reach the endpoint
+     */
+    public void dropNext(Predicate<Message> condition) {
+        dropNext = condition;
+    }
+
+    /**
+     * The next binary chat message matching the condition reaches the endpoint twice
+     */
+    public void replayNext(Predicate<Message> condition) {
+        replayNext = condition;
+    }
+
+    /**
+     * Text frames and the content of chat messages the endpoint sent, in order
+     */
+    public List<String> getSent() {
+        return sent;
+    }
+
+    /**
+     * Hands a text frame to the endpoint as if the server had sent it
+     */
+    public void inject(String frame) {
+        endpoint.onMessage(frame, true);
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Object frame = client.read();
+                if (frame instanceof String) {
+                    endpoint.onMessage((String) frame, true);
+                } else {
+                    deliver((ByteBuffer) frame);
+                }
+            }
+        } catch (IOException e) {
+            // Closed by either side
+        } finally {
+            if (closed.compareAndSet(false, true)) {
+                closeSocket();
+                endpoint.onClose(session);
+            }
+        }
+    }
+
+    private void deliver(ByteBuffer frame) {
+        int copies = 1;
+        if (BinaryFrameCodec.isMessageFrame(frame.get(0))) { // Batches are always delivered
+            Message header = BinaryFrameCodec.decodeHeader(frame.duplicate()).toMessage();
+            Predicate<Message> drop = dropNext;
+            Predicate<Message> replay = replayNext;
+            if (drop != null && drop.test(header)) {
+                dropNext = null;
+                copies = 0;
+            } else if (replay != null && replay.test(header)) {
+                replayNext = null;
+                copies = 2;
+            }
+        }
+        for (int i = 0; i < copies; i++) {
+            endpoint.onBinaryMessage(frame.duplicate(), true);
+        }
+    }
+
+    private Object onSessionCall(Object proxy, Method method, Object[] args) throws IOException {
+        switch (method.getName()) {
+            case "getId":
+                return "test-" + Integer.toHexString(System.identityHashCode(proxy));
+            case "isOpen":
+                return !closed.get();
+            case "getNegotiatedSubprotocol":
+                return client.getSubprotocol() != null ? client.getSubprotocol() : "";
+            case "getAsyncRemote":
+                return Proxy.newProxyInstance(RemoteEndpoint.Async.class.getClassLoader(), new Class<?>[]{RemoteEndpoint.Async.class},
+                        (remote, remoteMethod, remoteArgs) -> onRemoteCall(remoteMethod, remoteArgs));
+            case "close":
+                closeSocket(); // The reader notices and calls onClose
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "EndpointConnection session";
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private Object onRemoteCall(Method method, Object[] args) {
+        boolean futureResult = method.getParameterCount() == 1;
+        switch (method.getName()) {
+            case "sendText":
+            case "sendBinary":
+                if (!futureResult) {
+                    throw new UnsupportedOperationException("Only the Future variants are used by OutboundQueue");
+                }
+                try {
+                    if (args[0] instanceof String) {
+                        sent.add((String) args[0]);
+                        client.sendText((String) args[0]);
+                    } else {
+                        ByteBuffer frame = (ByteBuffer) args[0];
+                        if (BinaryFrameCodec.isMessageFrame(frame.get(frame.position()))) {
+                            sent.add(BinaryFrameCodec.decode(frame.duplicate()).getContent());
+                        }
+                        client.sendBinary(frame);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            default:
+                return defaultValue(method.getReturnType()); // Batching is not simulated
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private void closeSocket() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Closes the connection and waits until the endpoint got onClose
+     */
+    @Override
+    public void close() throws IOException {
+        closeSocket();
+        try {
+            reader.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package WebSocketHandling;
+
+import Crypto.ECKey;
+import model.Message;
+import model.MessageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Minimal stand-in for the chat backend, to test the client locally without the real server.
+ * Implements just enough of RFC 6455 (handshake, masked client frames, fragmentation, ping and close)
+ * and of the chat protocol: registration, challenge authentication, public keys (also in bulk), chat init and
+ * forwarding of chat messages. Chat messages are accepted as JSON and as binary frames, binary
+ * frames are used towards clients that asked for the "mchat-binary-v1" subprotocol.
+ * Chat messages are numbered per sender and recipient (Message.seq) and the last ones are kept,
+ * so "sync-since:<partner>:<seq>" can send missed messages as one batch. Messages for offline
+ * users are kept the same way and sent as one batch right after the next login, also from partners
+ * the client doesn't know yet. A message sent twice (same id) is only forwarded once.
+ * The numbers only live as long as the server, "auth-success:<epoch>" carries a random id of this
+ * server instance so clients notice a restart.
+ * After authentication the client gets a single-use resumption ticket ("resume-ticket:<seconds>:<ticket>"),
+ * "resume:<ticket>:<username>" on the next connection authenticates in one round trip.
+ * Tickets are signed with HMAC-SHA256, the key comes from -Dmchat.localserver.ticketKey (hex)
+ * so restarted servers accept each other's tickets, or is random per server.
+ * Everything is kept in memory, no TLS, no extensions.
+ * Part of the test sources (the client jar doesn't ship it), used by the tests in this package.
+ * Run by hand with the test classpath: java WebSocketHandling.LocalChatServer [port]
+ * @author Max Staneker, Mia Schienagel
+ */
+public class LocalChatServer {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_TICKET_LIFETIME_SECONDS = Long.getLong("mchat.localserver.ticketLifetime", 300);
+    private static final int HISTORY_SIZE = Integer.getInteger("mchat.localserver.history", 1000); // Per direction
+
+    private final int port;
+    private final long ticketLifetimeSeconds;
+    private final Map<String, String[]> registeredKeys = new ConcurrentHashMap<>(); // username -> {n, e} or {ed25519, x25519, "ec"}
+    private final Map<String, Connection> onlineUsers = new ConcurrentHashMap<>();
+    private final Map<String, ConversationLog> conversations = new ConcurrentHashMap<>(); // "sender>recipient"
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] ticketKey = loadTicketKey(random);
+    private final String epoch = Long.toHexString(random.nextLong()); // Message numbers are only valid within this instance
+    private final Map<String, Long> redeemedTickets = new ConcurrentHashMap<>(); // Nonce -> expiry, tickets are single use
+    private volatile ServerSocket serverSocket;
+
+    public LocalChatServer(int port) {
+        this(port, DEFAULT_TICKET_LIFETIME_SECONDS);
+    }
+
+    // Short lifetimes let tests watch tickets expire
+    public LocalChatServer(int port, long ticketLifetimeSeconds) {
+        this.port = port;
+        this.ticketLifetimeSeconds = ticketLifetimeSeconds;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+        new LocalChatServer(port).start();
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::acceptLoop, "localserver-accept");
+        acceptor.start();
+        System.out.println("[LOCALSERVER] Listening on ws://localhost:" + serverSocket.getLocalPort() + "/");
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        for (Connection connection : onlineUsers.values()) {
+            connection.close();
+        }
+    }
+
+    // Actual port, useful when started with port 0
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(new Connection(socket), "localserver-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("[LOCALSERVER] Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbered messages of one sender to one recipient
+     */
+    private static class ConversationLog {
+        private final Deque<Message> history = new ArrayDeque<>();
+        private final SeenIdFilter ids = new SeenIdFilter(HISTORY_SIZE);
+        private final String recipient;
+        private long lastSeq;
+        private long delivered; // Highest number sent to the recipient
+
+        ConversationLog(String recipient) {
+            this.recipient = recipient;
+        }
+
+        // Numbers and stores the message, false if it was already received
+        synchronized boolean append(Message message) {
+            if (!ids.add(message.getId())) {
+                return false;
+            }
+            message.setSeq(++lastSeq);
+            history.addLast(message);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            return true;
+        }
+
+        synchronized void markDelivered(long seq) {
+            delivered = Math.max(delivered, seq);
+        }
+
+        // Everything the recipient didn't get yet, counts as delivered from now on
+        synchronized List<Message> takeUndelivered() {
+            List<Message> messages = since(delivered);
+            if (!messages.isEmpty()) {
+                delivered = messages.get(messages.size() - 1).getSeq();
+            }
+            return messages;
+        }
+
+        synchronized List<Message> since(long seq) {
+            List<Message> messages = new ArrayList<>();
+            for (Message message : history) {
+                if (message.getSeq() > seq) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * One client connection, read by its own thread
+     */
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private boolean binary;
+        private String username; // Set after successful authentication
+        private byte[] challenge;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                if (!handshake()) {
+                    return;
+                }
+                readLoop();
+            } catch (IOException e) {
+                System.out.println("[LOCALSERVER] Connection ended: " + e.getMessage());
+            } finally {
+                close();
+                if (username != null && onlineUsers.remove(username, this)) {
+                    broadcastOnlineUsers();
+                }
+            }
+        }
+
+        private boolean handshake() throws IOException {
+            String[] lines = readHttpHeader().split("\r\n");
+            String key = null;
+            String protocols = "";
+            for (String line : lines) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("sec-websocket-key")) {
+                    key = value;
+                } else if (name.equals("sec-websocket-protocol")) {
+                    protocols = value;
+                }
+            }
+            if (key == null) {
+                out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                return false;
+            }
+            for (String protocol : protocols.split(",")) {
+                binary |= protocol.trim().equals(BinaryFrameCodec.SUBPROTOCOL);
+            }
+            StringBuilder response = new StringBuilder()
+                    .append("HTTP/1.1 101 Switching Protocols\r\n")
+                    .append("Upgrade: websocket\r\n")
+                    .append("Connection: Upgrade\r\n")
+                    .append("Sec-WebSocket-Accept: ").append(acceptKey(key)).append("\r\n");
+            if (binary) {
+                response.append("Sec-WebSocket-Protocol: ").append(BinaryFrameCodec.SUBPROTOCOL).append("\r\n");
+            }
+            response.append("\r\n");
+            out.write(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return true;
+        }
+
+        private String readHttpHeader() throws IOException {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            int matched = 0; // Progress through "\r\n\r\n"
+            while (matched < 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Connection closed during handshake");
+                }
+                header.write(b);
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+                if (header.size() > 16 * 1024) {
+                    throw new IOException("Handshake too large");
+                }
+            }
+            return header.toString(StandardCharsets.ISO_8859_1);
+        }
+
+        private void readLoop() throws IOException {
+            ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+            int messageOpcode = -1;
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return;
+                }
+                boolean fin = (first & 0x80) != 0;
+                int opcode = first & 0x0F;
+                byte[] payload = readPayload();
+
+                if (opcode == OP_CLOSE) {
+                    writeFrame(OP_CLOSE, payload, 0, Math.min(payload.length, 2)); // Echo the status code
+                    return;
+                } else if (opcode == OP_PING) {
+                    writeFrame(OP_PONG, payload, 0, payload.length);
+                    continue;
+                } else if (opcode == OP_PONG) {
+                    continue;
+                }
+
+                if (opcode != OP_CONTINUATION) {
+                    messageOpcode = opcode;
+                    fragments.reset();
+                }
+                fragments.write(payload);
+                if (fragments.size() > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Message too large");
+                }
+                if (fin) {
+                    byte[] message = fragments.toByteArray();
+                    if (messageOpcode == OP_TEXT) {
+                        onText(new String(message, StandardCharsets.UTF_8));
+                    } else if (messageOpcode == OP_BINARY) {
+                        onChatMessage(BinaryFrameCodec.decode(ByteBuffer.wrap(message)));
+                    }
+                }
+            }
+        }
+
+        private byte[] readPayload() throws IOException {
+            int second = readByte();
+            boolean masked = (second & 0x80) != 0;
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = (readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            if (length > MAX_MESSAGE_SIZE) {
+                throw new IOException("Frame too large: " + length);
+            }
+            byte[] mask = new byte[4];
+            if (masked) {
+                readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            readFully(payload);
+            if (masked) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+            return payload;
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            return b;
+        }
+
+        private void readFully(byte[] buffer) throws IOException {
+            int offset = 0;
+            while (offset < buffer.length) {
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    throw new EOFException("Connection closed inside a frame");
+                }
+                offset += read;
+            }
+        }
+
+        // Server frames are never masked and never fragmented
+        private synchronized void writeFrame(int opcode, byte[] payload, int offset, int length) throws IOException {
+            out.write(0x80 | opcode);
+            if (length < 126) {
+                out.write(length);
+            } else if (length <= 0xFFFF) {
+                out.write(126);
+                out.write(length >>> 8);
+                out.write(length);
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) ((long) length >>> shift));
+                }
+            }
+            out.write(payload, offset, length);
+            out.flush();
+        }
+
+        void sendText(String text) {
+            try {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                writeFrame(OP_TEXT, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                System.err.println("[LOCALSERVER] Send failed: " + e.getMessage());
+            }
+        }
+
+        void sendMessage(Message message) {
+            if (!binary) {
+                sendText(MessageCodec.toJson(message));
+                return;
+            }
+            try {
+                ByteBuffer frame = BinaryFrameCodec.encode(message);
+                writeFrame(OP_BINARY, frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } catch (IOException e) {
+                System.err.println("[LOCALSERVER] Send failed: " + e.getMessage());
+            }
+        }
+
+        // All messages in one frame
+        void sendBatch(List<Message> messages) {
+            if (!binary) {
+                sendText("sync-batch:" + MessageCodec.toJsonArray(messages));
+                return;
+            }
+            try {
+                ByteBuffer frame = BinaryFrameCodec.encodeBatch(messages);
+                writeFrame(OP_BINARY, frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } catch (IOException e) {
+                System.err.println("[LOCALSERVER] Send failed: " + e.getMessage());
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        private void onText(String text) {
+            int colon = text.indexOf(':');
+            String command = colon < 0 ? text : text.substring(0, colon);
+            String argument = colon < 0 ? "" : text.substring(colon + 1);
+            switch (command) {
+                case "auth-request":
+                    challenge = new byte[32];
+                    random.nextBytes(challenge);
+                    sendText("challenge:" + HexFormat.of().formatHex(challenge));
+                    break;
+                case "auth-response":
+                    onAuthResponse(argument);
+                    break;
+                case "resume":
+                    onResume(argument);
+                    break;
+                case "check-username":
+                    sendText(registeredKeys.containsKey(argument) ? "username-exists" : "username-available");
+                    break;
+                case "register":
+                    onRegister(argument.split(":"));
+                    break;
+                default:
+                    if (text.startsWith("{")) {
+                        onChatMessage(MessageCodec.fromJson(text));
+                    } else {
+                        System.err.println("[LOCALSERVER] Unknown command: " + command);
+                    }
+            }
+        }
+
+        // "register:username:n:e" or "register:username:ed25519:x25519:ec"
+        private void onRegister(String[] parts) {
+            boolean ec = parts.length == 4 && "ec".equals(parts[3]);
+            if (parts.length != 3 && !ec) {
+                sendText("register-failure:invalid format");
+            } else if (registeredKeys.putIfAbsent(parts[0], ec
+                    ? new String[]{parts[1], parts[2], "ec"}
+                    : new String[]{parts[1], parts[2]}) != null) {
+                sendText("register-failure:username exists");
+            } else {
+                System.out.println("[LOCALSERVER] Registered " + parts[0] + (ec ? " (EC)" : " (RSA)"));
+                sendText("register-success");
+            }
+        }
+
+        // "auth-response:signatureHex:username"
+        private void onAuthResponse(String argument) {
+            int colon = argument.lastIndexOf(':');
+            String[] keys = colon < 0 ? null : registeredKeys.get(argument.substring(colon + 1));
+            if (challenge == null || keys == null || !verify(keys, challenge, argument.substring(0, colon))) {
+                sendText("auth-failure");
+                return;
+            }
+            challenge = null;
+            authenticated(argument.substring(colon + 1));
+            System.out.println("[LOCALSERVER] Authenticated " + username);
+        }
+
+        // "ticket:username", falls back to the challenge on the client side if rejected
+        private void onResume(String argument) {
+            int colon = argument.lastIndexOf(':');
+            String user = colon < 0 ? null : argument.substring(colon + 1);
+            if (user == null || !registeredKeys.containsKey(user) || !redeemTicket(argument.substring(0, colon), user)) {
+                sendText("resume-failure");
+                return;
+            }
+            authenticated(user);
+            System.out.println("[LOCALSERVER] Resumed session of " + username);
+        }
+
+        private void authenticated(String user) {
+            username = user;
+            Connection previous = onlineUsers.put(username, this);
+            if (previous != null && previous != this) {
+                previous.close();
+            }
+            sendText("auth-success:" + epoch);
+            sendText("resume-ticket:" + ticketLifetimeSeconds + ":" + issueTicket(username));
+            sendPending();
+            broadcastOnlineUsers();
+        }
+
+        // Messages that arrived while the user was offline, the client only knows which partners to sync
+        // with if it got a message from them before
+        private void sendPending() {
+            List<Message> pending = new ArrayList<>();
+            for (ConversationLog log : conversations.values()) {
+                if (log.recipient.equals(username)) {
+                    pending.addAll(log.takeUndelivered());
+                }
+            }
+            if (!pending.isEmpty()) {
+                System.out.println("[LOCALSERVER] Sending " + pending.size() + " stored messages to " + username);
+                sendBatch(pending);
+            }
+        }
+
+        private void onChatMessage(Message message) {
+            if (username == null) {
+                sendText("auth-failure");
+                return;
+            }
+            String content = message.getContent() != null ? message.getContent() : "";
+            if (content.startsWith("get-public-key:")) {
+                sendText(publicKeyResponse(content.substring("get-public-key:".length())));
+            } else if (content.startsWith("get-public-keys:")) {
+                sendText(publicKeysResponse(content.substring("get-public-keys:".length()).split(",")));
+            } else if (content.startsWith("init-chat:")) {
+                String partner = content.substring("init-chat:".length());
+                sendText(onlineUsers.containsKey(partner)
+                        ? "chat-init-success:" + partner
+                        : "chat-init-failure:" + partner + " is not online");
+            } else if (content.startsWith("sync-since:")) {
+                onSyncSince(content.substring("sync-since:".length()));
+            } else if (message.getRecipient() != null) {
+                message.setSender(username); // Never trust the sender field of the client
+                ConversationLog log = conversations.computeIfAbsent(username + ">" + message.getRecipient(),
+                        key -> new ConversationLog(message.getRecipient()));
+                if (!log.append(message)) {
+                    System.out.println("[LOCALSERVER] Dropped duplicate message from " + username);
+                    return;
+                }
+                Connection recipient = onlineUsers.get(message.getRecipient());
+                if (recipient != null) {
+                    // Usually just this message, taking it keeps a login running at the same time from sending it again
+                    List<Message> due = log.takeUndelivered();
+                    if (due.size() == 1) {
+                        recipient.sendMessage(due.get(0));
+                    } else if (!due.isEmpty()) {
+                        recipient.sendBatch(due);
+                    }
+                } else {
+                    System.out.println("[LOCALSERVER] Stored message for offline user " + message.getRecipient());
+                }
+            }
+        }
+
+        // "partner:seq", the messages of partner to us after seq
+        private void onSyncSince(String argument) {
+            int colon = argument.lastIndexOf(':');
+            long seq;
+            try {
+                seq = Long.parseLong(argument.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                System.err.println("[LOCALSERVER] Invalid sync request: " + argument);
+                return;
+            }
+            ConversationLog log = colon > 0 ? conversations.get(argument.substring(0, colon) + ">" + username) : null;
+            List<Message> missed = log != null ? log.since(seq) : List.of();
+            if (!missed.isEmpty()) {
+                System.out.println("[LOCALSERVER] Sending " + missed.size() + " missed messages to " + username);
+                sendBatch(missed);
+                log.markDelivered(missed.get(missed.size() - 1).getSeq());
+            }
+        }
+    }
+
+    private static byte[] loadTicketKey(SecureRandom random) {
+        String hex = System.getProperty("mchat.localserver.ticketKey");
+        if (hex != null) {
+            return HexFormat.of().parseHex(hex);
+        }
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        return key;
+    }
+
+    // Base64url(nonce(16) | expiry(8)) + "." + Base64url(HMAC(nonce | expiry | username))
+    private String issueTicket(String user) {
+        ByteBuffer body = ByteBuffer.allocate(24);
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        body.put(nonce).putLong(System.currentTimeMillis() + ticketLifetimeSeconds * 1000);
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        return base64.encodeToString(body.array()) + "." + base64.encodeToString(ticketMac(body.array(), user));
+    }
+
+    private boolean redeemTicket(String ticket, String user) {
+        int dot = ticket.indexOf('.');
+        byte[] body;
+        byte[] mac;
+        try {
+            body = Base64.getUrlDecoder().decode(ticket.substring(0, Math.max(dot, 0)));
+            mac = Base64.getUrlDecoder().decode(ticket.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (body.length != 24 || !MessageDigest.isEqual(mac, ticketMac(body, user))) {
+            return false;
+        }
+        long expiry = ByteBuffer.wrap(body, 16, 8).getLong();
+        long now = System.currentTimeMillis();
+        if (expiry < now) {
+            return false;
+        }
+        redeemedTickets.values().removeIf(redeemedExpiry -> redeemedExpiry < now); // Expired ones can't be replayed anyway
+        return redeemedTickets.putIfAbsent(HexFormat.of().formatHex(body, 0, 16), expiry) == null;
+    }
+
+    private byte[] ticketMac(byte[] body, String user) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(ticketKey, "HmacSHA256"));
+            mac.update(body);
+            return mac.doFinal(user.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private String publicKeyResponse(String user) {
+        String[] keys = registeredKeys.get(user);
+        if (keys == null) {
+            return "public-key-not-found:" + user;
+        }
+        return "public-key:" + user + ":" + String.join(":", keys);
+    }
+
+    // "public-keys:user:keys;user:keys;unknownUser"
+    private String publicKeysResponse(String[] users) {
+        StringBuilder response = new StringBuilder("public-keys:");
+        for (String user : users) {
+            if (response.length() > "public-keys:".length()) {
+                response.append(';');
+            }
+            String[] keys = registeredKeys.get(user);
+            response.append(user);
+            if (keys != null) {
+                response.append(':').append(String.join(":", keys));
+            }
+        }
+        return response.toString();
+    }
+
+    private void broadcastOnlineUsers() {
+        StringBuilder list = new StringBuilder("online-users:[");
+        for (String user : onlineUsers.keySet()) {
+            if (list.charAt(list.length() - 1) != '[') {
+                list.append(',');
+            }
+            list.append('"').append(user).append('"');
+        }
+        String message = list.append(']').toString();
+        for (Connection connection : onlineUsers.values()) {
+            connection.sendText(message);
+        }
+    }
+
+    private static boolean verify(String[] keys, byte[] challenge, String signatureHex) {
+        try {
+            BigInteger signature = new BigInteger(signatureHex, 16);
+            if (keys.length == 3) {
+                // Ed25519 over the raw challenge, leading zero bytes were dropped by the hex encoding
+                byte[] raw = signature.toByteArray();
+                byte[] signatureBytes = new byte[64];
+                int length = Math.min(raw.length, 64);
+                System.arraycopy(raw, raw.length - length, signatureBytes, 64 - length, length);
+                return ECKey.verify(keys[0], challenge, signatureBytes);
+            }
+            // RSA over the SHA-256 hash of the challenge
+            BigInteger n = new BigInteger(keys[0], 16);
+            BigInteger e = new BigInteger(keys[1], 16);
+            BigInteger hash = new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(challenge));
+            return signature.modPow(e, n).equals(hash);
+        } catch (NumberFormatException | NoSuchAlgorithmException ex) {
+            return false;
+        }
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
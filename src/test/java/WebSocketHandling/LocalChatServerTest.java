@@ -0,0 +1,171 @@
+package WebSocketHandling;
+
+import model.Message;
+import model.MessageCodec;
+import model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Round trips through a real LocalChatServer: subprotocol negotiation, binary and JSON clients
+ * talking to each other and the sync batch in both formats
+ * @author Max Staneker, Mia Schienagel
+ */
+public class LocalChatServerTest {
+    private LocalChatServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new LocalChatServer(0);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.stop();
+    }
+
+    private TestWebSocketClient connect(boolean binary) throws IOException {
+        return new TestWebSocketClient(server.getPort(), binary);
+    }
+
+    private static Message chatMessage(String sender, String content, String recipient) {
+        Message message = new Message(sender, content, recipient);
+        message.setId(Message.newId());
+        return message;
+    }
+
+    @Test
+    public void binarySubprotocolIsNegotiated() throws IOException {
+        try (TestWebSocketClient client = connect(true)) {
+            assertEquals(BinaryFrameCodec.SUBPROTOCOL, client.getSubprotocol());
+        }
+    }
+
+    @Test
+    public void withoutOfferNoSubprotocol() throws IOException {
+        try (TestWebSocketClient client = connect(false)) {
+            assertNull(client.getSubprotocol());
+        }
+    }
+
+    @Test
+    public void binaryToBinary() throws IOException {
+        try (TestWebSocketClient alice = connect(true); TestWebSocketClient bob = connect(true)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+
+            Message sent = chatMessage("alice", "Hallo Bob", "bob");
+            alice.sendBinary(BinaryFrameCodec.encode(sent));
+            Message received = BinaryFrameCodec.decode(bob.awaitBinary());
+            assertEquals("alice", received.getSender());
+            assertEquals("Hallo Bob", received.getContent());
+            assertEquals(sent.getId(), received.getId());
+            assertEquals(1, received.getSeq());
+        }
+    }
+
+    @Test
+    public void jsonFallback() throws IOException {
+        try (TestWebSocketClient alice = connect(false); TestWebSocketClient bob = connect(false)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+
+            Message sent = chatMessage("alice", "Hallo per JSON", "bob");
+            alice.sendText(MessageCodec.toJson(sent));
+            Message received = MessageCodec.fromJson(bob.awaitText("{"));
+            assertEquals("Hallo per JSON", received.getContent());
+            assertEquals(sent.getId(), received.getId());
+            assertEquals(1, received.getSeq());
+        }
+    }
+
+    @Test
+    public void mixedClients() throws IOException {
+        try (TestWebSocketClient alice = connect(true); TestWebSocketClient bob = connect(false)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+
+            // Binary in, JSON out
+            alice.sendBinary(BinaryFrameCodec.encode(chatMessage("alice", "bin\u00e4r gesendet", "bob")));
+            assertEquals("bin\u00e4r gesendet", MessageCodec.fromJson(bob.awaitText("{")).getContent());
+
+            // JSON in, binary out
+            bob.sendText(MessageCodec.toJson(chatMessage("bob", "als JSON gesendet", "alice")));
+            assertEquals("als JSON gesendet", BinaryFrameCodec.decode(alice.awaitBinary()).getContent());
+        }
+    }
+
+    @Test
+    public void senderCannotBeForged() throws IOException {
+        try (TestWebSocketClient alice = connect(true); TestWebSocketClient bob = connect(true)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+
+            alice.sendBinary(BinaryFrameCodec.encode(chatMessage("mallory", "wer bin ich?", "bob")));
+            assertEquals("alice", BinaryFrameCodec.decode(bob.awaitBinary()).getSender());
+        }
+    }
+
+    @Test
+    public void syncBatchInBothFormats() throws IOException {
+        try (TestWebSocketClient alice = connect(true); TestWebSocketClient bob = connect(true);
+             TestWebSocketClient jsonBob = connect(false)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+            for (int i = 1; i <= 3; i++) {
+                alice.sendBinary(BinaryFrameCodec.encode(chatMessage("alice", "m" + i, "bob")));
+                bob.awaitBinary();
+            }
+
+            bob.sendBinary(BinaryFrameCodec.encode(new Message("bob", "sync-since:alice:1")));
+            List<Message> missed = BinaryFrameCodec.decodeAll(bob.awaitBinary());
+            assertEquals(2, missed.size());
+            assertEquals("m2", missed.get(0).getContent());
+            assertEquals(3, missed.get(1).getSeq());
+
+            // The same over JSON, a new login replaces the binary connection
+            jsonBob.login(bobUser);
+            jsonBob.sendText(MessageCodec.toJson(new Message("bob", "sync-since:alice:0")));
+            String batch = jsonBob.awaitText("sync-batch:");
+            missed = MessageCodec.fromJsonArray(batch.substring("sync-batch:".length()));
+            assertEquals(3, missed.size());
+            assertEquals("m1", missed.get(0).getContent());
+        }
+    }
+
+    @Test
+    public void duplicateIdIsForwardedOnce() throws IOException {
+        try (TestWebSocketClient alice = connect(true); TestWebSocketClient bob = connect(true)) {
+            User aliceUser = alice.register("alice");
+            User bobUser = bob.register("bob");
+            alice.login(aliceUser);
+            bob.login(bobUser);
+
+            ByteBuffer frame = BinaryFrameCodec.encode(chatMessage("alice", "einmal", "bob"));
+            alice.sendBinary(frame);
+            alice.sendBinary(frame);
+            assertEquals("einmal", BinaryFrameCodec.decode(bob.awaitBinary()).getContent());
+            assertTrue(bob.receivesNoChatMessage(300));
+        }
+    }
+}
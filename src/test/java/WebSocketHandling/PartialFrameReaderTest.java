@@ -0,0 +1,178 @@
+package WebSocketHandling;
+
+import Crypto.RSAKey;
+import model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Messages split into parts as @OnMessage with the last flag delivers them: large block content
+ * is streamed to a PartialMessageReceiver, everything else arrives as a whole
+ * @author Max Staneker, Mia Schienagel
+ */
+public class PartialFrameReaderTest {
+    private static final int CONTENT_LENGTH = 200 * 1024; // Above the default stream threshold of 64 KiB
+    private static final int PART_SIZE = 16 * 1024;
+
+    private InboundPipeline pipeline;
+    private final List<ByteBuffer> completeFrames = new ArrayList<>();
+    private final List<Message> streamedHeaders = new ArrayList<>();
+    private RecordingReceiver receiver;
+    private PartialFrameReader reader;
+
+    // Records what arrives on the conversation worker
+    private static class RecordingReceiver implements PartialMessageReceiver {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean completed;
+        volatile Exception failure;
+
+        @Override
+        public void onContent(byte[] data) {
+            content.write(data, 0, data.length);
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception reason) {
+            failure = reason;
+            done.countDown();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        pipeline = new InboundPipeline(new ProtocolDispatcher());
+        receiver = new RecordingReceiver();
+        reader = new PartialFrameReader(pipeline, message -> {
+            streamedHeaders.add(message);
+            return receiver;
+        }, completeFrames::add);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    private static byte[] blockContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    private static byte[] frame(String content) {
+        ByteBuffer frame = BinaryFrameCodec.encode(new Message("alice", content, "bob"));
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    // Feeds all parts, the last one only if complete is set
+    private void feedParts(byte[] frame, boolean complete) throws Exception {
+        for (int offset = 0; offset < frame.length; offset += PART_SIZE) {
+            int end = Math.min(offset + PART_SIZE, frame.length);
+            boolean last = end == frame.length;
+            if (last && !complete) {
+                return;
+            }
+            reader.feed(Arrays.copyOfRange(frame, offset, end), last);
+        }
+    }
+
+    @Test
+    public void largeBlockMessageIsStreamed() throws Exception {
+        byte[] content = blockContent(CONTENT_LENGTH);
+        feedParts(frame(RSAKey.BLOCKS_PREFIX + Base64.getEncoder().encodeToString(content)), true);
+
+        assertTrue(receiver.done.await(5, TimeUnit.SECONDS));
+        assertTrue(receiver.completed);
+        assertNull(receiver.failure);
+        assertArrayEquals(content, receiver.content.toByteArray());
+        assertEquals(1, streamedHeaders.size());
+        assertEquals("alice", streamedHeaders.get(0).getSender());
+        assertTrue(completeFrames.isEmpty());
+    }
+
+    @Test
+    public void abortedStreamFails() throws Exception {
+        byte[] content = blockContent(CONTENT_LENGTH);
+        feedParts(frame(RSAKey.BLOCKS_PREFIX + Base64.getEncoder().encodeToString(content)), false);
+        reader.abort();
+
+        assertTrue(receiver.done.await(5, TimeUnit.SECONDS));
+        assertFalse(receiver.completed);
+        assertNotNull(receiver.failure);
+        assertTrue(receiver.content.size() < CONTENT_LENGTH);
+        assertTrue(completeFrames.isEmpty());
+    }
+
+    @Test
+    public void readerIsReusableAfterAbort() throws Exception {
+        byte[] content = blockContent(CONTENT_LENGTH);
+        byte[] frame = frame(RSAKey.BLOCKS_PREFIX + Base64.getEncoder().encodeToString(content));
+        feedParts(frame, false);
+        reader.abort();
+        assertTrue(receiver.done.await(5, TimeUnit.SECONDS));
+
+        receiver = new RecordingReceiver();
+        feedParts(frame, true);
+        assertTrue(receiver.done.await(5, TimeUnit.SECONDS));
+        assertTrue(receiver.completed);
+        assertArrayEquals(content, receiver.content.toByteArray());
+    }
+
+    @Test
+    public void largeTextMessageIsCollected() throws Exception {
+        String text = "x".repeat(CONTENT_LENGTH);
+        byte[] frame = frame(text);
+        feedParts(frame, true);
+
+        assertTrue(streamedHeaders.isEmpty());
+        assertEquals(1, completeFrames.size());
+        assertEquals(text, BinaryFrameCodec.decode(completeFrames.get(0)).getContent());
+    }
+
+    @Test
+    public void smallBlockMessageIsCollected() throws Exception {
+        byte[] frame = frame(RSAKey.BLOCKS_PREFIX + Base64.getEncoder().encodeToString(blockContent(PART_SIZE * 2)));
+        feedParts(frame, true);
+
+        assertTrue(streamedHeaders.isEmpty());
+        assertEquals(1, completeFrames.size());
+        assertEquals(frame.length, completeFrames.get(0).remaining());
+    }
+
+    @Test
+    public void singlePartGoesStraightThrough() throws Exception {
+        byte[] frame = frame("kurz");
+        reader.feed(frame, true);
+
+        assertEquals(1, completeFrames.size());
+        assertEquals("kurz", BinaryFrameCodec.decode(completeFrames.get(0)).getContent());
+    }
+}
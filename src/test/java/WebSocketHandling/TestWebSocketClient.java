@@ -0,0 +1,238 @@
+package WebSocketHandling;
+
+import Authentication.Authentication;
+import Crypto.ECKey;
+import model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Properties;
+
+/*
+ * Raw RFC 6455 client for the tests against LocalChatServer, without the Tyrus client.
+ * Sends masked frames, optionally offers the binary subprotocol and hands out received frames
+ * as String (text) or ByteBuffer (binary). Frames skipped while waiting for a certain one are kept
+ * and returned by later calls.
+ * @author Max Staneker, Mia Schienagel
+ */
+public class TestWebSocketClient implements AutoCloseable {
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final String subprotocol; // Accepted by the server, null if none
+    private final Deque<Object> pending = new ArrayDeque<>();
+
+    public TestWebSocketClient(int port, boolean offerBinary) throws IOException {
+        socket = new Socket("localhost", port);
+        socket.setSoTimeout(READ_TIMEOUT_MS);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+        out.write(("GET /chat HTTP/1.1\r\n"
+                + "Host: localhost:" + port + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + (offerBinary ? "Sec-WebSocket-Protocol: " + BinaryFrameCodec.SUBPROTOCOL + "\r\n" : "")
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        StringBuilder header = new StringBuilder();
+        while (header.indexOf("\r\n\r\n") < 0) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed during handshake");
+            }
+            header.append((char) b);
+        }
+        // Accept key for the sample nonce of RFC 6455
+        if (!header.toString().startsWith("HTTP/1.1 101") || !header.toString().contains("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=")) {
+            throw new IOException("Handshake failed: " + header);
+        }
+        String accepted = null;
+        for (String line : header.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("sec-websocket-protocol:")) {
+                accepted = line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+        subprotocol = accepted;
+    }
+
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    public void sendText(String text) throws IOException {
+        sendFrame(0x1, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void sendBinary(ByteBuffer frame) throws IOException {
+        byte[] payload = new byte[frame.remaining()];
+        frame.duplicate().get(payload);
+        sendFrame(0x2, payload);
+    }
+
+    // Client frames have to be masked
+    private void sendFrame(int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+        frame.write(0x80 | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        frame.write(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i & 3]);
+        }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    /**
+     * Next frame, String for text and ByteBuffer for binary frames
+     */
+    public Object read() throws IOException {
+        return pending.isEmpty() ? readFrame() : pending.removeFirst();
+    }
+
+    /**
+     * Next text frame starting with the prefix, other frames are kept for later
+     */
+    public String awaitText(String prefix) throws IOException {
+        for (Iterator<Object> it = pending.iterator(); it.hasNext(); ) {
+            Object frame = it.next();
+            if (frame instanceof String && ((String) frame).startsWith(prefix)) {
+                it.remove();
+                return (String) frame;
+            }
+        }
+        while (true) {
+            Object frame = readFrame();
+            if (frame instanceof String && ((String) frame).startsWith(prefix)) {
+                return (String) frame;
+            }
+            pending.addLast(frame);
+        }
+    }
+
+    /**
+     * Next binary frame, text frames are kept for later
+     */
+    public ByteBuffer awaitBinary() throws IOException {
+        for (Iterator<Object> it = pending.iterator(); it.hasNext(); ) {
+            Object frame = it.next();
+            if (frame instanceof ByteBuffer) {
+                it.remove();
+                return (ByteBuffer) frame;
+            }
+        }
+        while (true) {
+            Object frame = readFrame();
+            if (frame instanceof ByteBuffer) {
+                return (ByteBuffer) frame;
+            }
+            pending.addLast(frame);
+        }
+    }
+
+    /**
+     * True if no chat message (binary, JSON or sync batch) arrives within the given time,
+     * other frames are kept for later
+     */
+    public boolean receivesNoChatMessage(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+        try {
+            while (true) {
+                Object frame = readFrame();
+                pending.addLast(frame);
+                if (!(frame instanceof String) || ((String) frame).startsWith("{") || ((String) frame).startsWith("sync-batch:")) {
+                    return false;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        } finally {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+        }
+    }
+
+    // Server frames are never masked and never fragmented
+    private Object readFrame() throws IOException {
+        int first = in.readUnsignedByte();
+        long length = in.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        int opcode = first & 0x0F;
+        if (opcode == 0x8) {
+            throw new IOException("Closed by the server");
+        }
+        return opcode == 0x1 ? new String(payload, StandardCharsets.UTF_8) : ByteBuffer.wrap(payload);
+    }
+
+    /**
+     * Registers a new EC user through this connection
+     */
+    public User register(String username) throws IOException {
+        return register(username, new ECKey());
+    }
+
+    /**
+     * Registers the user with the given keys, e.g. again on a restarted server
+     */
+    public User register(String username, ECKey key) throws IOException {
+        sendText("register:" + username + ":" + key.getSigningPublicKeyHex() + ":" + key.getAgreementPublicKeyHex() + ":ec");
+        String response = awaitText("register-");
+        if (!response.equals("register-success")) {
+            throw new IOException("Registration of " + username + " failed: " + response);
+        }
+        Properties credentials = new Properties();
+        credentials.setProperty("keyType", "EC");
+        key.storeTo(credentials, "");
+        return new User(username, true, credentials);
+    }
+
+    /**
+     * Challenge authentication, returns the "auth-success:<epoch>" frame
+     */
+    public String login(User user) throws IOException {
+        Authentication authentication = new Authentication(user);
+        sendText("auth-request");
+        authentication.setChallenge(awaitText("challenge:").substring("challenge:".length()));
+        sendText(authentication.buildAuthResponse());
+        String response = awaitText("auth-");
+        if (!response.startsWith("auth-success:")) {
+            throw new IOException("Login of " + user.getUsername() + " failed: " + response);
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}